@@ -0,0 +1,123 @@
+package nu.nerd.nerdlist.benchmark;
+
+import nu.nerd.nerdlist.ListRequestMessage;
+import nu.nerd.nerdlist.ListResponseMessage;
+import nu.nerd.nerdlist.MemberIndex;
+import nu.nerd.nerdlist.MessageCodec;
+import nu.nerd.nerdlist.RosterDictionary;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures encoding and decoding requests and whole-list responses in the
+ * binary format, the legacy JSON format, and the binary format deflated
+ * against the previous roster.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({"50", "500", "5000"})
+    public int players;
+
+    @Param({"1", "10", "50"})
+    public int groups;
+
+    private MessageCodec codec;
+    private ListRequestMessage request;
+    private ListResponseMessage response;
+    private byte[] previousBody;
+    private byte[] binaryRequest;
+    private byte[] jsonRequest;
+    private byte[] binaryResponse;
+    private byte[] jsonResponse;
+    private byte[] deflatedResponse;
+    private Map<String, RosterDictionary> dictionaries;
+
+    @Setup
+    public void setUp() {
+        CodecPayloads payloads = new CodecPayloads(new Scenario(players, groups, 0, 42));
+        codec = payloads.getCodec();
+        request = payloads.getRequest();
+        response = payloads.getResponse();
+        previousBody = payloads.getPreviousBody();
+        binaryRequest = codec.encode(request, false);
+        jsonRequest = codec.encode(request, true);
+        binaryResponse = codec.encode(response, false);
+        jsonResponse = codec.encode(response, true);
+        deflatedResponse = payloads.encodeDeflated(previousBody);
+        dictionaries = new ConcurrentHashMap<String, RosterDictionary>();
+        dictionaries.put(response.getServer().toLowerCase(),
+                new RosterDictionary(response.getVersion() - 1, previousBody));
+    }
+
+    @Benchmark
+    public byte[] encodeRequestBinary() {
+        return codec.encode(request, false);
+    }
+
+    @Benchmark
+    public byte[] encodeRequestJSON() {
+        return codec.encode(request, true);
+    }
+
+    @Benchmark
+    public ListRequestMessage decodeRequestBinary() {
+        return codec.decodeRequest(binaryRequest);
+    }
+
+    @Benchmark
+    public ListRequestMessage decodeRequestJSON() {
+        return codec.decodeRequest(jsonRequest);
+    }
+
+    @Benchmark
+    public byte[] encodeResponseBinary() {
+        return codec.encode(response, false);
+    }
+
+    @Benchmark
+    public byte[] encodeResponseJSON() {
+        return codec.encode(response, true);
+    }
+
+    @Benchmark
+    public byte[] encodeResponseDeflated() {
+        byte[] body = codec.encodeResponseBody(response);
+        return codec.encodeResponse(response, codec.deflate(body, previousBody), response.getVersion() - 1,
+                body.length);
+    }
+
+    @Benchmark
+    public ListResponseMessage decodeResponseBinary() {
+        return codec.decodeResponse(binaryResponse);
+    }
+
+    @Benchmark
+    public ListResponseMessage decodeResponseJSON() {
+        return codec.decodeResponse(jsonResponse);
+    }
+
+    @Benchmark
+    public ListResponseMessage decodeResponseDeflated() {
+        return codec.decodeResponse(deflatedResponse, dictionaries);
+    }
+
+}
@@ -0,0 +1,107 @@
+package nu.nerd.nerdlist.benchmark;
+
+import nu.nerd.nerdlist.ListRequestMessage;
+import nu.nerd.nerdlist.ListResponseMessage;
+import nu.nerd.nerdlist.MemberIndex;
+import nu.nerd.nerdlist.MessageCodec;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The messages exchanged for one /list all between two servers: a request,
+ * the whole-list response, and the roster the responding server sent the
+ * time before, which differs by one player.
+ */
+public class CodecPayloads {
+
+    private final MessageCodec codec;
+    private final ListRequestMessage request;
+    private final ListResponseMessage response;
+    private final byte[] previousBody;
+
+    /**
+     * Creates the messages for the given population.
+     *
+     * @param scenario the population of the responding server
+     */
+    public CodecPayloads(Scenario scenario) {
+        MemberIndex index = new MemberIndex();
+        scenario.populate(index);
+        long version = index.getVersion();
+        Map<String, Collection<String>> groups = Scenario.copyGroups(index);
+        codec = new MessageCodec();
+        request = new ListRequestMessage("lobby", "Notch", 7, false, null, 1,
+                scenario.getSettings().getPageSize(), true, version - 1);
+        response = new ListResponseMessage("survival", "Notch", 7, version, groups);
+        previousBody = codec.encodeResponseBody(new ListResponseMessage("survival", "Notch", 7, version - 1,
+                withoutFirstPlayer(groups)));
+    }
+
+    private static Map<String, Collection<String>> withoutFirstPlayer(Map<String, Collection<String>> groups) {
+        Map<String, Collection<String>> previous = new LinkedHashMap<String, Collection<String>>();
+        boolean removed = false;
+        for (Map.Entry<String, Collection<String>> entry : groups.entrySet()) {
+            List<String> players = new ArrayList<String>(entry.getValue());
+            if (!removed && !players.isEmpty()) {
+                players.remove(0);
+                removed = true;
+            }
+            previous.put(entry.getKey(), players);
+        }
+        return previous;
+    }
+
+    /**
+     * Gets the codec.
+     *
+     * @return the codec
+     */
+    public MessageCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Gets the request.
+     *
+     * @return the request
+     */
+    public ListRequestMessage getRequest() {
+        return request;
+    }
+
+    /**
+     * Gets the response.
+     *
+     * @return the response
+     */
+    public ListResponseMessage getResponse() {
+        return response;
+    }
+
+    /**
+     * Gets the encoded roster the responding server sent the time before,
+     * whose version is one less than the response's.
+     *
+     * @return the encoded roster
+     */
+    public byte[] getPreviousBody() {
+        return previousBody;
+    }
+
+    /**
+     * Encodes the response with its roster deflated.
+     *
+     * @param dictionary the previous encoded roster to deflate against, or null
+     * @return the encoded payload
+     */
+    public byte[] encodeDeflated(byte[] dictionary) {
+        byte[] body = codec.encodeResponseBody(response);
+        return codec.encodeResponse(response, codec.deflate(body, dictionary),
+                dictionary == null ? ListResponseMessage.NO_VERSION : response.getVersion() - 1, body.length);
+    }
+
+}
@@ -0,0 +1,164 @@
+package nu.nerd.nerdlist.benchmark;
+
+import org.bukkit.entity.Player;
+import org.bukkit.permissions.Permission;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A stand-in for an online player. Only the methods NerdList uses do
+ * anything; every other method returns null, false, or zero.
+ */
+public class FakePlayer implements InvocationHandler {
+
+    private final String name;
+    private final UUID uuid;
+    private final Set<String> permissions;
+    private final Player player;
+    private volatile Listener listener;
+
+    /**
+     * Creates a player with the given name and permissions.
+     *
+     * @param name the player's name
+     * @param permissions the permissions the player has
+     */
+    public FakePlayer(String name, Collection<String> permissions) {
+        this.name = name;
+        uuid = UUID.nameUUIDFromBytes(("OfflinePlayer:" + name).getBytes(StandardCharsets.UTF_8));
+        this.permissions = new HashSet<String>(permissions);
+        player = (Player) Proxy.newProxyInstance(Player.class.getClassLoader(), new Class<?>[]{Player.class}, this);
+    }
+
+    /**
+     * Gets the player's name.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the player as seen by the plugin.
+     *
+     * @return the player
+     */
+    public Player getPlayer() {
+        return player;
+    }
+
+    /**
+     * Sets the listener told about the messages sent to this player.
+     *
+     * @param listener the listener, or null
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        Listener listener = this.listener;
+        switch (method.getName()) {
+            case "getName":
+            case "getDisplayName":
+            case "getPlayerListName":
+                return name;
+            case "getUniqueId":
+                return uuid;
+            case "hasPermission":
+            case "isPermissionSet":
+                Object permission = args[0];
+                return permissions.contains(permission instanceof Permission
+                        ? ((Permission) permission).getName() : (String) permission);
+            case "isOnline":
+                return true;
+            case "sendMessage":
+            case "sendRawMessage":
+                if (listener != null) {
+                    if (args[0] instanceof String[]) {
+                        for (String message : (String[]) args[0]) {
+                            listener.onMessage(this, message);
+                        }
+                    } else {
+                        listener.onMessage(this, (String) args[0]);
+                    }
+                }
+                return null;
+            case "sendPluginMessage":
+                if (listener != null) {
+                    listener.onPluginMessage(this, (String) args[1], (byte[]) args[2]);
+                }
+                return null;
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "FakePlayer{name=" + name + "}";
+            default:
+                return getDefaultValue(method.getReturnType());
+        }
+    }
+
+    /**
+     * Gets the value a stand-in returns from a method it does not implement.
+     *
+     * @param type the method's return type
+     * @return null, false, or zero
+     */
+    public static Object getDefaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == Void.TYPE) {
+            return null;
+        } else if (type == Boolean.TYPE) {
+            return false;
+        } else if (type == Character.TYPE) {
+            return '\0';
+        } else if (type == Byte.TYPE) {
+            return (byte) 0;
+        } else if (type == Short.TYPE) {
+            return (short) 0;
+        } else if (type == Integer.TYPE) {
+            return 0;
+        } else if (type == Long.TYPE) {
+            return 0L;
+        } else if (type == Float.TYPE) {
+            return 0f;
+        } else {
+            return 0d;
+        }
+    }
+
+    /**
+     * Receives the messages sent to a fake player.
+     */
+    public interface Listener {
+
+        /**
+         * Called when a chat message is sent to the player.
+         *
+         * @param player the player
+         * @param message the message
+         */
+        void onMessage(FakePlayer player, String message);
+
+        /**
+         * Called when the plugin sends a plugin message through the player.
+         *
+         * @param player the player
+         * @param channel the channel
+         * @param message the message
+         */
+        void onPluginMessage(FakePlayer player, String channel, byte[] message);
+
+    }
+
+}
@@ -0,0 +1,55 @@
+package nu.nerd.nerdlist.benchmark;
+
+import nu.nerd.nerdlist.MessageCodec;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the size in bytes of each message format for every population
+ * the benchmarks use, as JSON. The report goes to the file named by the
+ * first argument, or to standard output.
+ */
+public class PayloadSizeReport {
+
+    private static final int[] PLAYERS = {50, 500, 5000};
+    private static final int[] GROUPS = {1, 10, 50};
+
+    @SuppressWarnings("unchecked")
+    public static void main(String[] args) throws IOException {
+        JSONArray report = new JSONArray();
+        for (int players : PLAYERS) {
+            for (int groups : GROUPS) {
+                CodecPayloads payloads = new CodecPayloads(new Scenario(players, groups, 0, 42));
+                MessageCodec codec = payloads.getCodec();
+                JSONObject row = new JSONObject();
+                row.put("players", players);
+                row.put("groups", groups);
+                row.put("request-binary", codec.encode(payloads.getRequest(), false).length);
+                row.put("request-json", codec.encode(payloads.getRequest(), true).length);
+                row.put("response-binary", codec.encode(payloads.getResponse(), false).length);
+                row.put("response-json", codec.encode(payloads.getResponse(), true).length);
+                row.put("response-deflated", payloads.encodeDeflated(null).length);
+                row.put("response-deflated-dictionary", payloads.encodeDeflated(payloads.getPreviousBody()).length);
+                report.add(row);
+            }
+        }
+        Writer out = new OutputStreamWriter(args.length > 0 ? new FileOutputStream(args[0]) : System.out,
+                StandardCharsets.UTF_8);
+        try {
+            report.writeJSONString(out);
+            out.write('\n');
+        } finally {
+            out.flush();
+            if (args.length > 0) {
+                out.close();
+            }
+        }
+    }
+
+}
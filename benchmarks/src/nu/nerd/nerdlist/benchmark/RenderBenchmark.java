@@ -0,0 +1,72 @@
+package nu.nerd.nerdlist.benchmark;
+
+import nu.nerd.nerdlist.ListConfig;
+import nu.nerd.nerdlist.ListSlice;
+import nu.nerd.nerdlist.MemberIndex;
+import nu.nerd.nerdlist.NerdList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures formatting a list into chat messages.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+
+    @Param({"50", "500", "5000"})
+    public int players;
+
+    @Param({"1", "10", "50"})
+    public int groups;
+
+    @Param({"0.0", "0.1", "0.5"})
+    public double hiddenRatio;
+
+    private ListConfig settings;
+    private ListSlice whole;
+    private ListSlice page;
+
+    @Setup
+    public void setUp() {
+        Scenario scenario = new Scenario(players, groups, hiddenRatio, 42);
+        MemberIndex index = new MemberIndex();
+        scenario.populate(index);
+        settings = scenario.getSettings();
+        whole = ListSlice.of(Scenario.copyGroups(index), null, 0, 0);
+        page = ListSlice.of(Scenario.copyGroups(index), null, 1, settings.getPageSize());
+    }
+
+    /**
+     * Formats the whole list, as a server with paging disabled does.
+     */
+    @Benchmark
+    public List<String> renderWhole() {
+        return NerdList.formatMessageList(whole, "survival", settings);
+    }
+
+    /**
+     * Formats the first page.
+     */
+    @Benchmark
+    public List<String> renderPage() {
+        return NerdList.formatMessageList(page, "survival", settings);
+    }
+
+}
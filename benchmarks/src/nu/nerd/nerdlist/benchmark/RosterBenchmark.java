@@ -0,0 +1,101 @@
+package nu.nerd.nerdlist.benchmark;
+
+import nu.nerd.nerdlist.ListSlice;
+import nu.nerd.nerdlist.MemberIndex;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures keeping the roster up to date and reading pages from it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RosterBenchmark {
+
+    @Param({"50", "500", "5000"})
+    public int players;
+
+    @Param({"1", "10", "50"})
+    public int groups;
+
+    @Param({"0.0", "0.1", "0.5"})
+    public double hiddenRatio;
+
+    private Scenario scenario;
+    private MemberIndex index;
+    private int pageSize;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        scenario = new Scenario(players, groups, hiddenRatio, 42);
+        index = new MemberIndex();
+        scenario.populate(index);
+        pageSize = scenario.getSettings().getPageSize();
+    }
+
+    /**
+     * Lists every player again, as a config reload does.
+     */
+    @Benchmark
+    public MemberIndex recacheAll() {
+        scenario.populate(index);
+        return index;
+    }
+
+    /**
+     * One player quits and joins again.
+     */
+    @Benchmark
+    public long rejoin() {
+        int player = next;
+        next = (next + 1) % players;
+        Player online = scenario.getPlayers().get(player).getPlayer();
+        index.remove(online);
+        scenario.recache(index, player);
+        return index.getVersion();
+    }
+
+    /**
+     * Takes the first page, as /list does.
+     */
+    @Benchmark
+    public ListSlice firstPage() {
+        return ListSlice.of(index.getGroups(), null, 1, pageSize);
+    }
+
+    /**
+     * Takes the last page, which skips over every earlier group.
+     */
+    @Benchmark
+    public ListSlice lastPage() {
+        return ListSlice.of(index.getGroups(), null, Integer.MAX_VALUE, pageSize);
+    }
+
+    /**
+     * Looks up players by a short prefix, as /list find does.
+     */
+    @Benchmark
+    public Map<String, Collection<String>> find() {
+        return index.find("a", scenario.getSettings().getFindLimit());
+    }
+
+}
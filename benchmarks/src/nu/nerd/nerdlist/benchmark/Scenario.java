@@ -0,0 +1,202 @@
+package nu.nerd.nerdlist.benchmark;
+
+import nu.nerd.nerdlist.ListConfig;
+import nu.nerd.nerdlist.ListGroup;
+import nu.nerd.nerdlist.MemberIndex;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * A synthetic server population: some number of players spread over some
+ * number of groups, with a share of them hidden from the list. The same
+ * seed always gives the same players.
+ */
+public class Scenario {
+
+    private static final String NAME_CHARACTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789_";
+
+    private final ListConfig settings;
+    private final List<FakePlayer> players;
+    private final boolean[] hidden;
+
+    /**
+     * Creates a population.
+     *
+     * @param playerCount the number of players
+     * @param groupCount the number of groups
+     * @param hiddenRatio the share of players hidden from the list, from 0 to 1
+     * @param seed the seed for names, groups, and hidden players
+     */
+    public Scenario(int playerCount, int groupCount, double hiddenRatio, long seed) {
+        YamlConfiguration config = loadDefaults();
+        config.set("groups", createGroups(groupCount));
+        settings = new ListConfig(config, Logger.getLogger("NerdList"));
+        Random random = new Random(seed);
+        Set<String> names = new HashSet<String>();
+        players = new ArrayList<FakePlayer>(playerCount);
+        hidden = new boolean[playerCount];
+        for (int i = 0; i < playerCount; i++) {
+            players.add(new FakePlayer(createName(random, names), getPermissions(pickGroup(random, groupCount))));
+            hidden[i] = random.nextDouble() < hiddenRatio;
+        }
+    }
+
+    /**
+     * Loads the plugin's default config.yml.
+     *
+     * @return the default config
+     */
+    public static YamlConfiguration loadDefaults() {
+        InputStream defaults = Scenario.class.getResourceAsStream("/config.yml");
+        if (defaults == null) {
+            throw new IllegalStateException("config.yml is not on the class path");
+        }
+        return YamlConfiguration.loadConfiguration(new InputStreamReader(defaults, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Creates group definitions as written in config.yml. Group 0 is the
+     * default group with the lowest priority; each later group outranks the
+     * one before it.
+     *
+     * @param groupCount the number of groups
+     * @return the group definitions
+     */
+    public static List<Map<String, Object>> createGroups(int groupCount) {
+        List<Map<String, Object>> groups = new ArrayList<Map<String, Object>>();
+        for (int i = 0; i < groupCount; i++) {
+            Map<String, Object> group = new LinkedHashMap<String, Object>();
+            group.put("name", i == 0 ? "Default" : "Group" + i);
+            group.put("permission", "nerdlist.group." + i);
+            group.put("priority", i);
+            groups.add(group);
+        }
+        return groups;
+    }
+
+    /**
+     * Picks a group for a new player. Half of all players are in the default
+     * group and the rest are spread evenly over the other groups.
+     *
+     * @param random the source of randomness
+     * @param groupCount the number of groups
+     * @return the group number
+     */
+    public static int pickGroup(Random random, int groupCount) {
+        return groupCount <= 1 || random.nextBoolean() ? 0 : 1 + random.nextInt(groupCount - 1);
+    }
+
+    /**
+     * Gets the permissions of a player in the given group. Every player also
+     * has the default group's permission, so the group is found by testing
+     * groups in priority order, as on a real server.
+     *
+     * @param group the group number
+     * @return the permissions
+     */
+    public static Collection<String> getPermissions(int group) {
+        return Arrays.asList("nerdlist.group.0", "nerdlist.group." + group);
+    }
+
+    /**
+     * Creates a valid player name that is not yet in use.
+     *
+     * @param random the source of randomness
+     * @param used the names in use, to which the new name is added
+     * @return the name
+     */
+    public static String createName(Random random, Set<String> used) {
+        while (true) {
+            char[] name = new char[3 + random.nextInt(8)];
+            for (int i = 0; i < name.length; i++) {
+                name[i] = NAME_CHARACTERS.charAt(random.nextInt(NAME_CHARACTERS.length()));
+            }
+            String created = new String(name);
+            if (used.add(created.toLowerCase())) {
+                return created;
+            }
+        }
+    }
+
+    /**
+     * Gets the settings, with this population's groups.
+     *
+     * @return the settings
+     */
+    public ListConfig getSettings() {
+        return settings;
+    }
+
+    /**
+     * Gets the players.
+     *
+     * @return the players
+     */
+    public List<FakePlayer> getPlayers() {
+        return players;
+    }
+
+    /**
+     * Lists every player in the index, replacing its previous contents.
+     *
+     * @param index the index
+     */
+    public void populate(MemberIndex index) {
+        index.reset(settings.getDisplayGroups());
+        for (int i = 0; i < players.size(); i++) {
+            recache(index, i);
+        }
+    }
+
+    /**
+     * Lists one player in the index, finding their group the way the plugin
+     * does when they join.
+     *
+     * @param index the index
+     * @param player the player number
+     */
+    public void recache(MemberIndex index, int player) {
+        Player online = players.get(player).getPlayer();
+        if (hidden[player]) {
+            index.put(online, null, true);
+            return;
+        }
+        ListGroup listed = null;
+        for (ListGroup group : settings.getTestGroups()) {
+            if (group.isMember(online)) {
+                listed = group;
+                break;
+            }
+        }
+        index.put(online, listed);
+    }
+
+    /**
+     * Copies the index's list, keyed by group name as sent to other servers.
+     *
+     * @param index the index
+     * @return the list
+     */
+    public static Map<String, Collection<String>> copyGroups(MemberIndex index) {
+        Map<String, Collection<String>> groups = new LinkedHashMap<String, Collection<String>>();
+        for (Map.Entry<ListGroup, Collection<String>> entry : index.getGroups().entrySet()) {
+            groups.put(entry.getKey().getName(), new ArrayList<String>(entry.getValue()));
+        }
+        return groups;
+    }
+
+}
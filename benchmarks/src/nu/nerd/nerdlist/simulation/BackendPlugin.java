@@ -0,0 +1,57 @@
+package nu.nerd.nerdlist.simulation;
+
+import nu.nerd.nerdlist.NerdList;
+import org.bukkit.plugin.InvalidDescriptionException;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.java.JavaPluginLoader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * NerdList running on a simulated server.
+ */
+public class BackendPlugin extends NerdList {
+
+    /**
+     * Creates the plugin for the given server. The plugin's config.yml
+     * should already be in the data folder.
+     *
+     * @param server the server
+     * @param dataFolder the plugin's data folder
+     * @throws IOException if plugin.yml cannot be read
+     * @throws InvalidDescriptionException if plugin.yml is invalid
+     */
+    public BackendPlugin(SimServer server, File dataFolder) throws IOException, InvalidDescriptionException {
+        super(new JavaPluginLoader(server.getServer()), loadDescription(), dataFolder,
+                new File(dataFolder, "NerdList.jar"));
+    }
+
+    private static PluginDescriptionFile loadDescription() throws IOException, InvalidDescriptionException {
+        InputStream in = NerdList.class.getResourceAsStream("/plugin.yml");
+        if (in == null) {
+            throw new IOException("plugin.yml is not on the class path");
+        }
+        try {
+            return new PluginDescriptionFile(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Enables the plugin, as the server does on startup.
+     */
+    public void enable() {
+        setEnabled(true);
+    }
+
+    /**
+     * Disables the plugin, as the server does on shutdown.
+     */
+    public void disable() {
+        setEnabled(false);
+    }
+
+}
@@ -0,0 +1,309 @@
+package nu.nerd.nerdlist.simulation;
+
+import com.google.common.base.Joiner;
+import com.google.common.io.ByteArrayDataInput;
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.messaging.PluginMessageListener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Plays the part of BungeeCord for the plugin messages the servers send:
+ * it answers GetServer and GetServers, and forwards Forward messages to one
+ * server or to all the others. Each message is delayed by the configured
+ * latency plus up to the configured jitter, and lost with the configured
+ * probability. As in BungeeCord, messages for a server without players wait
+ * until a player joins it.
+ */
+public class ForwardRouter {
+
+    private final Map<String, SimServer> servers;
+    private final Map<Player, SimServer> locations;
+    private final Map<SimServer, List<byte[]>> waiting;
+    private final PriorityQueue<Delivery> deliveries;
+    private final Random random;
+    private final long latency;
+    private final long jitter;
+    private final double loss;
+    private final Map<String, long[]> channels;
+    private long sequence;
+    private long sent;
+    private long sentBytes;
+    private long delivered;
+    private long deliveredBytes;
+    private long lost;
+    private long unrouted;
+
+    /**
+     * Creates a router with no servers.
+     *
+     * @param random the source of randomness for latency and loss
+     * @param latency the least time a message takes, in nanoseconds
+     * @param jitter the most extra time a message may take, in nanoseconds
+     * @param loss the probability that a message is lost, from 0 to 1
+     */
+    public ForwardRouter(Random random, long latency, long jitter, double loss) {
+        servers = new LinkedHashMap<String, SimServer>();
+        locations = new HashMap<Player, SimServer>();
+        waiting = new HashMap<SimServer, List<byte[]>>();
+        deliveries = new PriorityQueue<Delivery>();
+        channels = new TreeMap<String, long[]>();
+        this.random = random;
+        this.latency = latency;
+        this.jitter = jitter;
+        this.loss = loss;
+    }
+
+    /**
+     * Adds a server to the network.
+     *
+     * @param server the server
+     */
+    public void addServer(SimServer server) {
+        servers.put(server.getName(), server);
+    }
+
+    /**
+     * Records that a player has joined a server, and sends that server the
+     * messages that were waiting for a player.
+     *
+     * @param player the player
+     * @param server the server
+     * @param now the current time, in nanoseconds
+     */
+    public void connect(Player player, SimServer server, long now) {
+        locations.put(player, server);
+        List<byte[]> queued = waiting.remove(server);
+        if (queued != null) {
+            for (byte[] message : queued) {
+                deliveries.add(new Delivery(now, sequence++, server, message));
+            }
+        }
+    }
+
+    /**
+     * Records that a player has left the network.
+     *
+     * @param player the player
+     */
+    public void disconnect(Player player) {
+        locations.remove(player);
+    }
+
+    /**
+     * Handles a plugin message a server sent through a player.
+     *
+     * @param player the player
+     * @param channel the plugin channel
+     * @param message the message
+     * @param now the current time, in nanoseconds
+     */
+    public void route(Player player, String channel, byte[] message, long now) {
+        SimServer from = locations.get(player);
+        if (from == null || !channel.equals("BungeeCord")) {
+            unrouted++;
+            return;
+        }
+        ByteArrayDataInput in = ByteStreams.newDataInput(message);
+        String subchannel = in.readUTF();
+        ByteArrayDataOutput out = ByteStreams.newDataOutput();
+        switch (subchannel) {
+            case "GetServer":
+                count(subchannel, message.length);
+                out.writeUTF("GetServer");
+                out.writeUTF(from.getName());
+                send(from, out.toByteArray(), now);
+                break;
+            case "GetServers":
+                count(subchannel, message.length);
+                out.writeUTF("GetServers");
+                out.writeUTF(Joiner.on(", ").join(servers.keySet()));
+                send(from, out.toByteArray(), now);
+                break;
+            case "Forward":
+                String target = in.readUTF();
+                String forwarded = in.readUTF();
+                byte[] payload = new byte[in.readShort()];
+                in.readFully(payload);
+                count(forwarded, message.length);
+                out.writeUTF(forwarded);
+                out.writeShort(payload.length);
+                out.write(payload);
+                byte[] incoming = out.toByteArray();
+                if (target.equals("ALL")) {
+                    for (SimServer server : servers.values()) {
+                        if (server != from) {
+                            send(server, incoming, now);
+                        }
+                    }
+                } else if (servers.containsKey(target)) {
+                    send(servers.get(target), incoming, now);
+                } else {
+                    unrouted++;
+                }
+                break;
+            default:
+                unrouted++;
+                break;
+        }
+    }
+
+    private void count(String channel, int length) {
+        long[] counts = channels.get(channel);
+        if (counts == null) {
+            counts = new long[2];
+            channels.put(channel, counts);
+        }
+        counts[0]++;
+        counts[1] += length;
+        sent++;
+        sentBytes += length;
+    }
+
+    private void send(SimServer server, byte[] message, long now) {
+        if (loss > 0 && random.nextDouble() < loss) {
+            lost++;
+            return;
+        }
+        long delay = latency + (jitter > 0 ? (long) (random.nextDouble() * jitter) : 0);
+        deliveries.add(new Delivery(now + delay, sequence++, server, message));
+    }
+
+    /**
+     * Hands every message due by now to its server's plugin message listener.
+     *
+     * @param now the current time, in nanoseconds
+     */
+    public void deliver(long now) {
+        while (!deliveries.isEmpty() && deliveries.peek().time <= now) {
+            Delivery delivery = deliveries.poll();
+            Player carrier = delivery.server.getCarrier();
+            PluginMessageListener incoming = delivery.server.getIncoming();
+            if (carrier == null) {
+                List<byte[]> queued = waiting.get(delivery.server);
+                if (queued == null) {
+                    queued = new ArrayList<byte[]>();
+                    waiting.put(delivery.server, queued);
+                }
+                queued.add(delivery.message);
+            } else if (incoming == null) {
+                unrouted++;
+            } else {
+                delivered++;
+                deliveredBytes += delivery.message.length;
+                incoming.onPluginMessageReceived("BungeeCord", carrier, delivery.message);
+            }
+        }
+    }
+
+    /**
+     * Resets the message counters, so that they only cover what follows.
+     */
+    public void resetCounters() {
+        channels.clear();
+        sent = 0;
+        sentBytes = 0;
+        delivered = 0;
+        deliveredBytes = 0;
+        lost = 0;
+        unrouted = 0;
+    }
+
+    /**
+     * Gets the number of messages and bytes the servers sent on each
+     * channel, including GetServer and GetServers.
+     *
+     * @return the message and byte counts, by channel
+     */
+    public Map<String, long[]> getChannels() {
+        return channels;
+    }
+
+    /**
+     * Gets the number of messages the servers sent to the proxy.
+     *
+     * @return the number of messages
+     */
+    public long getSent() {
+        return sent;
+    }
+
+    /**
+     * Gets the number of bytes the servers sent to the proxy.
+     *
+     * @return the number of bytes
+     */
+    public long getSentBytes() {
+        return sentBytes;
+    }
+
+    /**
+     * Gets the number of messages the proxy delivered to servers. A
+     * message forwarded to all servers counts once for each server.
+     *
+     * @return the number of messages
+     */
+    public long getDelivered() {
+        return delivered;
+    }
+
+    /**
+     * Gets the number of bytes the proxy delivered to servers.
+     *
+     * @return the number of bytes
+     */
+    public long getDeliveredBytes() {
+        return deliveredBytes;
+    }
+
+    /**
+     * Gets the number of messages lost on the way to a server.
+     *
+     * @return the number of messages
+     */
+    public long getLost() {
+        return lost;
+    }
+
+    /**
+     * Gets the number of messages that could not be routed, because they
+     * named no known server or subchannel, or their server was not listening.
+     *
+     * @return the number of messages
+     */
+    public long getUnrouted() {
+        return unrouted;
+    }
+
+    private static class Delivery implements Comparable<Delivery> {
+
+        private final long time;
+        private final long sequence;
+        private final SimServer server;
+        private final byte[] message;
+
+        private Delivery(long time, long sequence, SimServer server, byte[] message) {
+            this.time = time;
+            this.sequence = sequence;
+            this.server = server;
+            this.message = message;
+        }
+
+        @Override
+        public int compareTo(Delivery o) {
+            int cmp = Long.compare(time, o.time);
+            return cmp == 0 ? Long.compare(sequence, o.sequence) : cmp;
+        }
+
+    }
+
+}
@@ -0,0 +1,142 @@
+package nu.nerd.nerdlist.simulation;
+
+import org.json.simple.JSONObject;
+
+import java.util.Arrays;
+
+/**
+ * Counts and latencies for one kind of command.
+ */
+public class OperationStats {
+
+    private final String name;
+    private long[] latencies;
+    private int completed;
+    private int issued;
+    private int unanswered;
+    private int partial;
+    private int failed;
+    private int abandoned;
+
+    /**
+     * Creates empty stats.
+     *
+     * @param name the command, as typed
+     */
+    public OperationStats(String name) {
+        this.name = name;
+        latencies = new long[256];
+    }
+
+    /**
+     * Gets the command, as typed.
+     *
+     * @return the command
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Records that the command was run.
+     */
+    public void issued() {
+        issued++;
+    }
+
+    /**
+     * Records that the command was answered.
+     *
+     * @param latency the time until the first message, in nanoseconds
+     */
+    public void completed(long latency) {
+        if (completed == latencies.length) {
+            latencies = Arrays.copyOf(latencies, completed * 2);
+        }
+        latencies[completed++] = latency;
+    }
+
+    /**
+     * Records that the command was never answered.
+     */
+    public void unanswered() {
+        unanswered++;
+    }
+
+    /**
+     * Records that the answer said some servers did not respond.
+     */
+    public void partial() {
+        partial++;
+    }
+
+    /**
+     * Records that the answer was an error.
+     */
+    public void failed() {
+        failed++;
+    }
+
+    /**
+     * Records that the player quit before being answered.
+     */
+    public void abandoned() {
+        abandoned++;
+    }
+
+    /**
+     * Gets the number of answered commands.
+     *
+     * @return the number of commands
+     */
+    public int getCompleted() {
+        return completed;
+    }
+
+    /**
+     * Gets a latency percentile.
+     *
+     * @param percentile the percentile, from 0 to 100
+     * @return the latency, in milliseconds, or 0 if nothing was answered
+     */
+    public double getPercentile(double percentile) {
+        if (completed == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(latencies, completed);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * completed) - 1;
+        return sorted[Math.min(completed - 1, Math.max(0, index))] / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-14s issued %6d  answered %6d  unanswered %4d  partial %4d  failed %4d  " +
+                        "abandoned %4d  p50 %7.1f  p95 %7.1f  p99 %7.1f  max %7.1f ms", name, issued, completed,
+                unanswered, partial, failed, abandoned, getPercentile(50), getPercentile(95), getPercentile(99),
+                getPercentile(100));
+    }
+
+    /**
+     * Converts the stats to JSON.
+     *
+     * @return the JSON object
+     */
+    @SuppressWarnings("unchecked")
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("command", name);
+        json.put("issued", issued);
+        json.put("answered", completed);
+        json.put("unanswered", unanswered);
+        json.put("partial", partial);
+        json.put("failed", failed);
+        json.put("abandoned", abandoned);
+        json.put("p50-ms", getPercentile(50));
+        json.put("p95-ms", getPercentile(95));
+        json.put("p99-ms", getPercentile(99));
+        json.put("max-ms", getPercentile(100));
+        return json;
+    }
+
+}
@@ -0,0 +1,245 @@
+package nu.nerd.nerdlist.simulation;
+
+import nu.nerd.nerdlist.benchmark.FakePlayer;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A scheduler shared by every simulated server. Synchronous tasks run when
+ * {@link #tick()} is called, on the thread calling it; asynchronous tasks
+ * run on a thread pool. Tasks may be scheduled from any thread.
+ */
+public class SimScheduler implements InvocationHandler {
+
+    private final Logger logger;
+    private final PriorityQueue<SimTask> queue;
+    private final ExecutorService async;
+    private final BukkitScheduler scheduler;
+    private long tick;
+    private int nextId;
+
+    /**
+     * Creates a scheduler.
+     *
+     * @param logger the logger for tasks that throw
+     */
+    public SimScheduler(Logger logger) {
+        this.logger = logger;
+        queue = new PriorityQueue<SimTask>();
+        async = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Simulation async task");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler = (BukkitScheduler) Proxy.newProxyInstance(BukkitScheduler.class.getClassLoader(),
+                new Class<?>[]{BukkitScheduler.class}, this);
+    }
+
+    /**
+     * Gets the scheduler as seen by plugins.
+     *
+     * @return the scheduler
+     */
+    public BukkitScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Gets the number of ticks run so far.
+     *
+     * @return the current tick
+     */
+    public synchronized long getTick() {
+        return tick;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "runTask":
+                return schedule((Plugin) args[0], (Runnable) args[1], 0, 0);
+            case "runTaskLater":
+                return schedule((Plugin) args[0], (Runnable) args[1], (Long) args[2], 0);
+            case "runTaskTimer":
+                return schedule((Plugin) args[0], (Runnable) args[1], (Long) args[2], (Long) args[3]);
+            case "scheduleSyncDelayedTask":
+                return schedule((Plugin) args[0], (Runnable) args[1], args.length > 2 ? (Long) args[2] : 0, 0)
+                        .getTaskId();
+            case "runTaskAsynchronously":
+                return runAsync((Plugin) args[0], (Runnable) args[1]);
+            case "cancelTask":
+                cancel((Integer) args[0]);
+                return null;
+            case "cancelTasks":
+                cancel((Plugin) args[0]);
+                return null;
+            case "isCurrentlyRunning":
+            case "isQueued":
+                return false;
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "SimScheduler";
+            default:
+                if (method.getName().startsWith("run") || method.getName().startsWith("schedule")) {
+                    throw new UnsupportedOperationException(method.getName() + " is not simulated");
+                }
+                return FakePlayer.getDefaultValue(method.getReturnType());
+        }
+    }
+
+    private synchronized SimTask schedule(Plugin owner, Runnable runnable, long delay, long period) {
+        SimTask task = new SimTask(++nextId, owner, runnable, true, period);
+        task.due = tick + Math.max(1, delay);
+        queue.add(task);
+        return task;
+    }
+
+    private BukkitTask runAsync(Plugin owner, final Runnable runnable) {
+        final SimTask task;
+        synchronized (this) {
+            task = new SimTask(++nextId, owner, runnable, false, 0);
+        }
+        async.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!task.cancelled) {
+                    runSafely(task);
+                }
+            }
+        });
+        return task;
+    }
+
+    private synchronized void cancel(int id) {
+        for (SimTask task : queue) {
+            if (task.id == id) {
+                task.cancelled = true;
+            }
+        }
+    }
+
+    /**
+     * Cancels every task of the given plugin that has not run yet.
+     *
+     * @param owner the plugin
+     */
+    public synchronized void cancel(Plugin owner) {
+        for (SimTask task : queue) {
+            if (task.owner == owner) {
+                task.cancelled = true;
+            }
+        }
+    }
+
+    /**
+     * Advances to the next tick and runs the synchronous tasks due by then.
+     * Tasks scheduled while this runs wait for a later tick.
+     */
+    public void tick() {
+        List<SimTask> due = new ArrayList<SimTask>();
+        long now;
+        synchronized (this) {
+            now = ++tick;
+            while (!queue.isEmpty() && queue.peek().due <= now) {
+                due.add(queue.poll());
+            }
+        }
+        for (SimTask task : due) {
+            if (task.cancelled) {
+                continue;
+            }
+            runSafely(task);
+            if (task.period > 0 && !task.cancelled) {
+                synchronized (this) {
+                    task.due = now + task.period;
+                    queue.add(task);
+                }
+            }
+        }
+    }
+
+    private void runSafely(SimTask task) {
+        try {
+            task.runnable.run();
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Task " + task.id + " of " + task.owner.getName() + " threw an exception", e);
+        }
+    }
+
+    /**
+     * Stops the asynchronous task threads, waiting for running tasks to end.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void shutdown() throws InterruptedException {
+        async.shutdown();
+        async.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    private static class SimTask implements BukkitTask, Comparable<SimTask> {
+
+        private final int id;
+        private final Plugin owner;
+        private final Runnable runnable;
+        private final boolean sync;
+        private final long period;
+        private long due;
+        private volatile boolean cancelled;
+
+        private SimTask(int id, Plugin owner, Runnable runnable, boolean sync, long period) {
+            this.id = id;
+            this.owner = owner;
+            this.runnable = runnable;
+            this.sync = sync;
+            this.period = period;
+        }
+
+        @Override
+        public int getTaskId() {
+            return id;
+        }
+
+        @Override
+        public Plugin getOwner() {
+            return owner;
+        }
+
+        @Override
+        public boolean isSync() {
+            return sync;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        @Override
+        public int compareTo(SimTask o) {
+            int cmp = Long.compare(due, o.due);
+            return cmp == 0 ? Integer.compare(id, o.id) : cmp;
+        }
+
+    }
+
+}
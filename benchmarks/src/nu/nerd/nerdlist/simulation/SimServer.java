@@ -0,0 +1,187 @@
+package nu.nerd.nerdlist.simulation;
+
+import nu.nerd.nerdlist.benchmark.FakePlayer;
+import org.bukkit.Server;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.plugin.messaging.Messenger;
+import org.bukkit.plugin.messaging.PluginMessageListener;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * A stand-in for one backend server. It holds the online players, hands out
+ * the shared scheduler, and remembers the plugin message listener the
+ * plugin registers. Every other method returns null, false, or zero.
+ */
+public class SimServer implements InvocationHandler {
+
+    private final String name;
+    private final Logger logger;
+    private final SimScheduler scheduler;
+    private final Thread mainThread;
+    private final Map<UUID, Player> players;
+    private final Map<String, Player> playersByName;
+    private final Collection<Player> online;
+    private final Server server;
+    private final Messenger messenger;
+    private final PluginManager pluginManager;
+    private volatile PluginMessageListener incoming;
+
+    /**
+     * Creates a server with no players. The calling thread becomes the
+     * server's main thread.
+     *
+     * @param name the server's name on the network
+     * @param logger the server's logger
+     * @param scheduler the shared scheduler
+     */
+    public SimServer(String name, Logger logger, SimScheduler scheduler) {
+        this.name = name;
+        this.logger = logger;
+        this.scheduler = scheduler;
+        mainThread = Thread.currentThread();
+        players = new LinkedHashMap<UUID, Player>();
+        playersByName = new HashMap<String, Player>();
+        online = Collections.unmodifiableCollection(players.values());
+        server = (Server) Proxy.newProxyInstance(Server.class.getClassLoader(), new Class<?>[]{Server.class}, this);
+        InvocationHandler services = new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "registerIncomingPluginChannel":
+                        incoming = (PluginMessageListener) args[2];
+                        return null;
+                    case "unregisterIncomingPluginChannel":
+                        incoming = null;
+                        return null;
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        return FakePlayer.getDefaultValue(method.getReturnType());
+                }
+            }
+        };
+        messenger = (Messenger) Proxy.newProxyInstance(Messenger.class.getClassLoader(),
+                new Class<?>[]{Messenger.class}, services);
+        pluginManager = (PluginManager) Proxy.newProxyInstance(PluginManager.class.getClassLoader(),
+                new Class<?>[]{PluginManager.class}, services);
+    }
+
+    /**
+     * Gets the server's name on the network.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the server as seen by plugins.
+     *
+     * @return the server
+     */
+    public Server getServer() {
+        return server;
+    }
+
+    /**
+     * Gets the listener the plugin registered for plugin messages.
+     *
+     * @return the listener, or null if none is registered
+     */
+    public PluginMessageListener getIncoming() {
+        return incoming;
+    }
+
+    /**
+     * Gets the player plugin messages to this server are carried by.
+     *
+     * @return the first online player, or null if nobody is online
+     */
+    public Player getCarrier() {
+        return players.isEmpty() ? null : players.values().iterator().next();
+    }
+
+    /**
+     * Gets a copy of the online players.
+     *
+     * @return the online players
+     */
+    public List<Player> getPlayers() {
+        return new ArrayList<Player>(players.values());
+    }
+
+    /**
+     * Adds a player to the online players.
+     *
+     * @param player the player
+     */
+    public void addPlayer(Player player) {
+        players.put(player.getUniqueId(), player);
+        playersByName.put(player.getName().toLowerCase(), player);
+    }
+
+    /**
+     * Removes a player from the online players.
+     *
+     * @param player the player
+     */
+    public void removePlayer(Player player) {
+        players.remove(player.getUniqueId());
+        playersByName.remove(player.getName().toLowerCase());
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "getName":
+                return "Simulation";
+            case "getServerName":
+                return name;
+            case "getVersion":
+            case "getBukkitVersion":
+                return "1.8.3-R0.1-SNAPSHOT";
+            case "getLogger":
+                return logger;
+            case "getScheduler":
+                return scheduler.getScheduler();
+            case "getMessenger":
+                return messenger;
+            case "getPluginManager":
+                return pluginManager;
+            case "getOnlinePlayers":
+                return online;
+            case "getPlayer":
+                return args[0] instanceof UUID ? players.get(args[0])
+                        : playersByName.get(((String) args[0]).toLowerCase());
+            case "getPlayerExact":
+                return playersByName.get(((String) args[0]).toLowerCase());
+            case "isPrimaryThread":
+                return Thread.currentThread() == mainThread;
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "SimServer{name=" + name + "}";
+            default:
+                return FakePlayer.getDefaultValue(method.getReturnType());
+        }
+    }
+
+}
@@ -0,0 +1,546 @@
+package nu.nerd.nerdlist.simulation;
+
+import nu.nerd.nerdlist.ListConfig;
+import nu.nerd.nerdlist.benchmark.FakePlayer;
+import nu.nerd.nerdlist.benchmark.Scenario;
+import org.bukkit.ChatColor;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Runs a network of servers with NerdList in one process and measures how
+ * it copes with a steady stream of /list, /list &lt;server&gt;, and /list all
+ * commands while players join and quit. Every server runs the real plugin;
+ * only Bukkit and BungeeCord are simulated. All servers share one main
+ * thread, which ticks in real time, so latencies include waiting for ticks.
+ * <p>
+ * Run it with {@code java -cp target/benchmarks.jar
+ * nu.nerd.nerdlist.simulation.Simulation [--name=value ...]}, where the
+ * options and their defaults are:
+ * <ul>
+ * <li>servers=30, players=50 (per server at the start), groups=10</li>
+ * <li>duration=60 and warmup=10 (seconds), tick=50 (milliseconds)</li>
+ * <li>latency=2 and jitter=1 (milliseconds per message), loss=0 (from 0 to 1)</li>
+ * <li>rate=30 (commands per second), churn=2 (joins and quits per second)</li>
+ * <li>mix-list=50, mix-server=30, mix-all=20 (relative shares of each command)</li>
+ * <li>timeout=5 (seconds until a command counts as unanswered)</li>
+ * <li>replication=true, compression=true, wire-format=BINARY</li>
+ * <li>seed=1, json=(a file for the report as JSON), verbose=false</li>
+ * </ul>
+ */
+public class Simulation implements FakePlayer.Listener {
+
+    private static final Command LIST_COMMAND = new Command("list") {
+        @Override
+        public boolean execute(CommandSender sender, String label, String[] args) {
+            return false;
+        }
+    };
+
+    private final int serverCount;
+    private final int playersPerServer;
+    private final int groups;
+    private final long duration;
+    private final long warmup;
+    private final long tickLength;
+    private final double rate;
+    private final double churn;
+    private final double mixList;
+    private final double mixServer;
+    private final double mixAll;
+    private final long timeout;
+    private final boolean replication;
+    private final boolean compression;
+    private final String wireFormat;
+    private final String jsonPath;
+    private final Level logLevel;
+
+    private final Random random;
+    private final SimScheduler scheduler;
+    private final ForwardRouter router;
+    private final List<SimServer> servers;
+    private final Map<SimServer, BackendPlugin> plugins;
+    private final List<FakePlayer> online;
+    private final Map<FakePlayer, SimServer> locations;
+    private final Map<FakePlayer, Operation> outstanding;
+    private final Map<FakePlayer, Operation> answered;
+    private final Set<String> names;
+    private final OperationStats list;
+    private final OperationStats listServer;
+    private final OperationStats listAll;
+    private String missingPrefix;
+    private boolean measuring;
+    private double rateCredit;
+    private double churnCredit;
+    private long busy;
+    private long ticks;
+
+    /**
+     * Creates a simulation from the given options, removing each option
+     * as it is read.
+     *
+     * @param options the options, by name
+     * @throws IllegalArgumentException if an option is invalid or unknown
+     */
+    public Simulation(Map<String, String> options) {
+        serverCount = Math.max(1, getInt(options, "servers", 30));
+        playersPerServer = Math.max(0, getInt(options, "players", 50));
+        groups = Math.max(1, getInt(options, "groups", 10));
+        duration = toNanos(getDouble(options, "duration", 60), TimeUnit.SECONDS);
+        warmup = toNanos(getDouble(options, "warmup", 10), TimeUnit.SECONDS);
+        tickLength = Math.max(1, toNanos(getDouble(options, "tick", 50), TimeUnit.MILLISECONDS));
+        long latency = toNanos(getDouble(options, "latency", 2), TimeUnit.MILLISECONDS);
+        long jitter = toNanos(getDouble(options, "jitter", 1), TimeUnit.MILLISECONDS);
+        double loss = Math.min(1, Math.max(0, getDouble(options, "loss", 0)));
+        rate = Math.max(0, getDouble(options, "rate", 30));
+        churn = Math.max(0, getDouble(options, "churn", 2));
+        mixList = Math.max(0, getDouble(options, "mix-list", 50));
+        mixServer = Math.max(0, getDouble(options, "mix-server", 30));
+        mixAll = Math.max(0, getDouble(options, "mix-all", 20));
+        timeout = toNanos(getDouble(options, "timeout", 5), TimeUnit.SECONDS);
+        replication = getBoolean(options, "replication", true);
+        compression = getBoolean(options, "compression", true);
+        wireFormat = getString(options, "wire-format", "BINARY").toUpperCase();
+        long seed = getInt(options, "seed", 1);
+        jsonPath = getString(options, "json", null);
+        logLevel = getBoolean(options, "verbose", false) ? Level.INFO : Level.WARNING;
+        if (!options.isEmpty()) {
+            throw new IllegalArgumentException("Unknown options: " + options.keySet());
+        }
+        if (mixList + mixServer + mixAll <= 0) {
+            throw new IllegalArgumentException("At least one of mix-list, mix-server, and mix-all must be positive");
+        }
+
+        random = new Random(seed);
+        scheduler = new SimScheduler(createLogger("scheduler", logLevel));
+        router = new ForwardRouter(new Random(seed + 1), latency, jitter, loss);
+        servers = new ArrayList<SimServer>();
+        plugins = new HashMap<SimServer, BackendPlugin>();
+        online = new ArrayList<FakePlayer>();
+        locations = new HashMap<FakePlayer, SimServer>();
+        outstanding = new HashMap<FakePlayer, Operation>();
+        answered = new HashMap<FakePlayer, Operation>();
+        names = new HashSet<String>();
+        list = new OperationStats("/list");
+        listServer = new OperationStats("/list <server>");
+        listAll = new OperationStats("/list all");
+    }
+
+    public static void main(String[] args) throws Exception {
+        Simulation simulation;
+        try {
+            Map<String, String> options = new HashMap<String, String>();
+            for (String arg : args) {
+                int equals = arg.indexOf('=');
+                if (!arg.startsWith("--") || equals < 0) {
+                    throw new IllegalArgumentException("Expected --name=value, not " + arg);
+                }
+                options.put(arg.substring(2, equals), arg.substring(equals + 1));
+            }
+            simulation = new Simulation(options);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage() + ". See the Simulation class documentation for the options.");
+            System.exit(1);
+            return;
+        }
+        simulation.run();
+    }
+
+    /**
+     * Starts the servers, runs the warmup and the measured period, stops the
+     * servers, and prints the report.
+     *
+     * @throws Exception if the servers cannot be started
+     */
+    public void run() throws Exception {
+        File root = Files.createTempDirectory("nerdlist-simulation").toFile();
+        try {
+            startServers(root);
+            long start = System.nanoTime();
+            long measureStart = start + warmup;
+            long end = measureStart + duration;
+            long nextTick = start;
+            while (true) {
+                long now = System.nanoTime();
+                if (now >= end) {
+                    break;
+                }
+                if (now < nextTick) {
+                    TimeUnit.NANOSECONDS.sleep(Math.min(nextTick, end) - now);
+                    continue;
+                }
+                if (!measuring && now >= measureStart) {
+                    measuring = true;
+                    router.resetCounters();
+                }
+                // Bukkit handles incoming plugin messages before running the tick's tasks
+                router.deliver(now);
+                scheduler.tick();
+                runWorkload(now);
+                expireOperations(now);
+                long done = System.nanoTime();
+                if (measuring) {
+                    busy += done - now;
+                    ticks++;
+                }
+                // An overloaded main thread runs late rather than skipping ticks
+                nextTick = Math.max(nextTick + tickLength, done - tickLength);
+            }
+            stopServers();
+        } finally {
+            delete(root);
+        }
+        report();
+    }
+
+    private void startServers(File root) throws Exception {
+        YamlConfiguration config = Scenario.loadDefaults();
+        config.set("groups", Scenario.createGroups(groups));
+        config.set("replication.enabled", replication);
+        config.set("compression.enabled", compression);
+        config.set("wire-format", wireFormat);
+        String missing = new ListConfig(config, createLogger("config", logLevel)).getOutputMissing();
+        missingPrefix = missing.contains("%") ? missing.substring(0, missing.indexOf('%')) : missing;
+
+        for (int i = 1; i <= serverCount; i++) {
+            String name = "server" + i;
+            SimServer server = new SimServer(name, createLogger(name, logLevel), scheduler);
+            File dataFolder = new File(root, name);
+            if (!dataFolder.mkdirs()) {
+                throw new IOException("Unable to create " + dataFolder);
+            }
+            config.save(new File(dataFolder, "config.yml"));
+            BackendPlugin plugin = new BackendPlugin(server, dataFolder);
+            servers.add(server);
+            plugins.put(server, plugin);
+            router.addServer(server);
+            plugin.enable();
+        }
+        long now = System.nanoTime();
+        for (SimServer server : servers) {
+            for (int i = 0; i < playersPerServer; i++) {
+                join(server, now);
+            }
+        }
+    }
+
+    private void stopServers() throws InterruptedException {
+        for (SimServer server : servers) {
+            BackendPlugin plugin = plugins.get(server);
+            plugin.disable();
+            scheduler.cancel(plugin);
+        }
+        scheduler.shutdown();
+    }
+
+    private void runWorkload(long now) {
+        double seconds = tickLength / 1e9;
+        churnCredit += churn * seconds;
+        while (churnCredit >= 1) {
+            churnCredit--;
+            if (!online.isEmpty() && random.nextBoolean()) {
+                quit(online.get(random.nextInt(online.size())));
+            } else {
+                join(servers.get(random.nextInt(servers.size())), now);
+            }
+        }
+        rateCredit += rate * seconds;
+        while (rateCredit >= 1) {
+            rateCredit--;
+            issue(now);
+        }
+    }
+
+    private void join(SimServer server, long now) {
+        FakePlayer player = new FakePlayer(Scenario.createName(random, names),
+                Scenario.getPermissions(Scenario.pickGroup(random, groups)));
+        player.setListener(this);
+        server.addPlayer(player.getPlayer());
+        online.add(player);
+        locations.put(player, server);
+        router.connect(player.getPlayer(), server, now);
+        plugins.get(server).onPlayerJoin(new PlayerJoinEvent(player.getPlayer(),
+                player.getName() + " joined the game"));
+    }
+
+    private void quit(FakePlayer player) {
+        SimServer server = locations.remove(player);
+        plugins.get(server).onPlayerQuit(new PlayerQuitEvent(player.getPlayer(),
+                player.getName() + " left the game"));
+        server.removePlayer(player.getPlayer());
+        router.disconnect(player.getPlayer());
+        online.remove(player);
+        answered.remove(player);
+        Operation operation = outstanding.remove(player);
+        if (operation != null && operation.measured) {
+            operation.stats.abandoned();
+        }
+    }
+
+    private void issue(long now) {
+        // Players wait for an answer before running another command
+        FakePlayer player = null;
+        for (int i = 0; i < 8 && player == null && !online.isEmpty(); i++) {
+            FakePlayer candidate = online.get(random.nextInt(online.size()));
+            if (!outstanding.containsKey(candidate)) {
+                player = candidate;
+            }
+        }
+        if (player == null) {
+            return;
+        }
+        SimServer server = locations.get(player);
+        double pick = random.nextDouble() * (mixList + mixServer + mixAll);
+        String[] args;
+        OperationStats stats;
+        if (pick < mixList) {
+            args = new String[0];
+            stats = list;
+        } else if (pick < mixList + mixServer) {
+            SimServer target = servers.get(random.nextInt(servers.size()));
+            if (target == server && servers.size() > 1) {
+                target = servers.get((servers.indexOf(target) + 1) % servers.size());
+            }
+            args = new String[]{target.getName()};
+            stats = listServer;
+        } else {
+            args = new String[]{"all"};
+            stats = listAll;
+        }
+        if (measuring) {
+            stats.issued();
+        }
+        outstanding.put(player, new Operation(stats, now, measuring));
+        plugins.get(server).onCommand(player.getPlayer(), LIST_COMMAND, "list", args);
+    }
+
+    private void expireOperations(long now) {
+        Iterator<Operation> it = outstanding.values().iterator();
+        while (it.hasNext()) {
+            Operation operation = it.next();
+            if (now - operation.start > timeout) {
+                it.remove();
+                if (operation.measured) {
+                    operation.stats.unanswered();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onMessage(FakePlayer player, String message) {
+        long now = System.nanoTime();
+        Operation operation = outstanding.remove(player);
+        if (operation != null) {
+            answered.put(player, operation);
+            if (operation.measured) {
+                operation.stats.completed(now - operation.start);
+                if (message.startsWith(ChatColor.RED.toString())) {
+                    operation.stats.failed();
+                }
+            }
+        } else {
+            operation = answered.get(player);
+        }
+        if (operation != null && operation.measured && !operation.partial && message.startsWith(missingPrefix)) {
+            operation.partial = true;
+            operation.stats.partial();
+        }
+    }
+
+    @Override
+    public void onPluginMessage(FakePlayer player, String channel, byte[] message) {
+        router.route(player.getPlayer(), channel, message, System.nanoTime());
+    }
+
+    private void report() throws IOException {
+        double seconds = duration / 1e9;
+        int completed = list.getCompleted() + listServer.getCompleted() + listAll.getCompleted();
+        double perCommand = Math.max(1, completed);
+        System.out.println(String.format("Simulated %d servers for %.0f s after a %.0f s warmup, ending with %d " +
+                "players online.", serverCount, seconds, warmup / 1e9, online.size()));
+        for (OperationStats stats : new OperationStats[]{list, listServer, listAll}) {
+            System.out.println(stats);
+        }
+        System.out.println(String.format("Throughput: %.1f answered commands/s", completed / seconds));
+        System.out.println(String.format("Messages: %d sent (%.2f per answered command), %d delivered, %d lost, " +
+                        "%d unrouted", router.getSent(), router.getSent() / perCommand, router.getDelivered(),
+                router.getLost(), router.getUnrouted()));
+        System.out.println(String.format("Bytes: %d sent (%.0f per answered command), %d delivered (%.0f per " +
+                        "answered command)", router.getSentBytes(), router.getSentBytes() / perCommand,
+                router.getDeliveredBytes(), router.getDeliveredBytes() / perCommand));
+        for (Map.Entry<String, long[]> channel : router.getChannels().entrySet()) {
+            System.out.println(String.format("  %-18s %8d messages %10d bytes", channel.getKey(),
+                    channel.getValue()[0], channel.getValue()[1]));
+        }
+        System.out.println(String.format("Main thread: %.1f%% busy, %.2f ms per tick for all servers",
+                busy * 100.0 / duration, ticks == 0 ? 0 : busy / 1e6 / ticks));
+        if (jsonPath != null) {
+            Writer out = new OutputStreamWriter(new FileOutputStream(jsonPath), StandardCharsets.UTF_8);
+            try {
+                toJSON(seconds, completed).writeJSONString(out);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private JSONObject toJSON(double seconds, int completed) {
+        JSONObject json = new JSONObject();
+        json.put("servers", serverCount);
+        json.put("players-per-server", playersPerServer);
+        json.put("players-online", online.size());
+        json.put("groups", groups);
+        json.put("duration-s", seconds);
+        json.put("warmup-s", warmup / 1e9);
+        json.put("rate", rate);
+        json.put("churn", churn);
+        json.put("replication", replication);
+        json.put("compression", compression);
+        json.put("wire-format", wireFormat);
+        JSONArray commands = new JSONArray();
+        for (OperationStats stats : new OperationStats[]{list, listServer, listAll}) {
+            commands.add(stats.toJSON());
+        }
+        json.put("commands", commands);
+        json.put("throughput", completed / seconds);
+        json.put("messages-sent", router.getSent());
+        json.put("messages-delivered", router.getDelivered());
+        json.put("messages-lost", router.getLost());
+        json.put("messages-unrouted", router.getUnrouted());
+        json.put("bytes-sent", router.getSentBytes());
+        json.put("bytes-delivered", router.getDeliveredBytes());
+        json.put("messages-per-command", router.getSent() / (double) Math.max(1, completed));
+        json.put("bytes-per-command", router.getSentBytes() / (double) Math.max(1, completed));
+        JSONObject channels = new JSONObject();
+        for (Map.Entry<String, long[]> channel : router.getChannels().entrySet()) {
+            JSONObject counts = new JSONObject();
+            counts.put("messages", channel.getValue()[0]);
+            counts.put("bytes", channel.getValue()[1]);
+            channels.put(channel.getKey(), counts);
+        }
+        json.put("channels", channels);
+        json.put("main-thread-busy", busy / (double) duration);
+        json.put("main-thread-ms-per-tick", ticks == 0 ? 0 : busy / 1e6 / ticks);
+        return json;
+    }
+
+    private static Logger createLogger(final String name, Level level) {
+        Logger logger = Logger.getLogger("NerdListSimulation." + name);
+        logger.setUseParentHandlers(false);
+        logger.setLevel(level);
+        ConsoleHandler handler = new ConsoleHandler();
+        handler.setLevel(level);
+        handler.setFormatter(new Formatter() {
+            @Override
+            public String format(LogRecord record) {
+                StringBuilder line = new StringBuilder();
+                line.append('[').append(name).append("] ").append(record.getLevel()).append(": ")
+                        .append(formatMessage(record)).append(System.lineSeparator());
+                if (record.getThrown() != null) {
+                    StringWriter trace = new StringWriter();
+                    record.getThrown().printStackTrace(new PrintWriter(trace));
+                    line.append(trace);
+                }
+                return line.toString();
+            }
+        });
+        logger.addHandler(handler);
+        return logger;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    private static long toNanos(double amount, TimeUnit unit) {
+        return (long) (amount * unit.toNanos(1));
+    }
+
+    private static String getString(Map<String, String> options, String name, String def) {
+        String value = options.remove(name);
+        return value == null ? def : value;
+    }
+
+    private static int getInt(Map<String, String> options, String name, int def) {
+        String value = options.remove(name);
+        try {
+            return value == null ? def : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + " '" + value + "'");
+        }
+    }
+
+    private static double getDouble(Map<String, String> options, String name, double def) {
+        String value = options.remove(name);
+        try {
+            return value == null ? def : Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + " '" + value + "'");
+        }
+    }
+
+    private static boolean getBoolean(Map<String, String> options, String name, boolean def) {
+        String value = options.remove(name);
+        if (value == null) {
+            return def;
+        } else if (value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false")) {
+            return Boolean.parseBoolean(value);
+        }
+        throw new IllegalArgumentException("Invalid " + name + " '" + value + "'");
+    }
+
+    private static class Operation {
+
+        private final OperationStats stats;
+        private final long start;
+        private final boolean measured;
+        private boolean partial;
+
+        private Operation(OperationStats stats, long start, boolean measured) {
+            this.stats = stats;
+            this.start = start;
+            this.measured = measured;
+        }
+
+    }
+
+}
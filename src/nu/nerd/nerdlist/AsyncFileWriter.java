@@ -0,0 +1,98 @@
+package nu.nerd.nerdlist;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Writes a file off the main thread. Pending contents
+ * are coalesced so only the latest contents are written, and each write
+ * replaces the file atomically so a crash cannot leave it half-written.
+ */
+public class AsyncFileWriter {
+
+    private final NerdList plugin;
+    private final File file;
+    private final AtomicReference<String> pending;
+    private final Object lock;
+
+    /**
+     * Creates a writer for the given file.
+     *
+     * @param plugin the NerdList plugin
+     * @param file the file to write
+     */
+    public AsyncFileWriter(NerdList plugin, File file) {
+        this.plugin = plugin;
+        this.file = file;
+        pending = new AtomicReference<String>();
+        lock = new Object();
+    }
+
+    /**
+     * Writes the given contents to the file on a background thread. If a
+     * write is already pending, it is replaced by these contents.
+     *
+     * @param contents the file contents
+     */
+    public void write(String contents) {
+        if (pending.getAndSet(contents) == null) {
+            plugin.getServer().getScheduler().runTaskAsynchronously(plugin, new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes the given contents to the file on the calling thread, after any
+     * write already in progress has finished.
+     *
+     * @param contents the file contents
+     */
+    public void writeNow(String contents) {
+        pending.set(contents);
+        flush();
+    }
+
+    /**
+     * Writes any pending contents to the file on the calling thread, so they
+     * are not lost if the background write has not run yet.
+     */
+    public void flushPending() {
+        flush();
+    }
+
+    private void flush() {
+        synchronized (lock) {
+            String contents = pending.getAndSet(null);
+            if (contents == null) {
+                return;
+            }
+            try {
+                File parent = file.getAbsoluteFile().getParentFile();
+                if (!parent.exists() && !parent.mkdirs()) {
+                    throw new IOException("Unable to create " + parent);
+                }
+                Path target = file.toPath();
+                Path temp = new File(parent, file.getName() + ".tmp").toPath();
+                Files.write(temp, contents.getBytes(StandardCharsets.UTF_8));
+                try {
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException e) {
+                plugin.getLogger().warning("An error occurred while saving " + file.getName() + ".");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,52 @@
+package nu.nerd.nerdlist;
+
+import com.google.common.collect.Iterables;
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Sends messages through BungeeCord, as Forward plugin messages carried by
+ * an online player. Messages cannot be sent while the server is empty.
+ */
+public class BungeeTransport implements Transport {
+
+    private final Plugin plugin;
+
+    /**
+     * Creates a new BungeeCord transport.
+     *
+     * @param plugin the plugin sending the messages
+     */
+    public BungeeTransport(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public boolean send(String server, String channel, byte[] payload) {
+        ByteArrayDataOutput out = ByteStreams.newDataOutput();
+        out.writeUTF("Forward");
+        out.writeUTF(server);
+        out.writeUTF(channel);
+        out.writeShort(payload.length);
+        out.write(payload);
+
+        Player player = Iterables.getFirst(plugin.getServer().getOnlinePlayers(), null);
+        if (player == null) {
+            return false;
+        }
+        player.sendPluginMessage(plugin, "BungeeCord", out.toByteArray());
+        return true;
+    }
+
+    @Override
+    public boolean canSend() {
+        return !plugin.getServer().getOnlinePlayers().isEmpty();
+    }
+
+    @Override
+    public void close() {
+    }
+
+}
@@ -0,0 +1,59 @@
+package nu.nerd.nerdlist;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The counts last received from other servers, kept for a short time so that
+ * frequent count lookups do not each send a request. Counts answered for
+ * admins are kept apart, since servers may only answer admins.
+ */
+public class CountCache {
+
+    private final Map<String, ServerCounts> counts;
+    private final Map<String, ServerCounts> adminCounts;
+
+    /**
+     * Creates an empty cache.
+     */
+    public CountCache() {
+        counts = new HashMap<String, ServerCounts>();
+        adminCounts = new HashMap<String, ServerCounts>();
+    }
+
+    /**
+     * Stores a server's counts, replacing any earlier counts from it.
+     *
+     * @param counts the counts
+     * @param admin whether the counts were answered for an admin
+     */
+    public void put(ServerCounts counts, boolean admin) {
+        (admin ? adminCounts : this.counts).put(counts.getServer().toLowerCase(), counts);
+    }
+
+    /**
+     * Gets a server's counts, if they are recent enough.
+     *
+     * @param server the server
+     * @param admin whether the counts are for an admin
+     * @param ttl how long counts are kept, in milliseconds
+     * @return the counts, or null if there are none recent enough
+     */
+    public ServerCounts get(String server, boolean admin, long ttl) {
+        ServerCounts cached = (admin ? adminCounts : counts).get(server.toLowerCase());
+        if (cached == null && admin) {
+            // Anything answered for other players may be shown to admins
+            cached = counts.get(server.toLowerCase());
+        }
+        return cached != null && System.currentTimeMillis() - cached.getCreated() < ttl ? cached : null;
+    }
+
+    /**
+     * Removes all counts.
+     */
+    public void clear() {
+        counts.clear();
+        adminCounts.clear();
+    }
+
+}
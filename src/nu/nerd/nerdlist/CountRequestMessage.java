@@ -0,0 +1,43 @@
+package nu.nerd.nerdlist;
+
+/**
+ * A request for the number of players on another server. Count messages are
+ * only sent in the binary format.
+ */
+public class CountRequestMessage extends ListMessage {
+
+    /**
+     * The subchannel over which count requests are sent.
+     */
+    public static final String CHANNEL = "NerdListCount";
+
+    private final boolean admin;
+
+    /**
+     * Creates a new count request.
+     *
+     * @param server the requesting server, or null if not yet known
+     * @param player the requesting player, or an empty string if no player is waiting
+     * @param id the id to send back with the response, or {@link #NO_ID}
+     * @param admin whether the request is made for an admin
+     */
+    public CountRequestMessage(String server, String player, int id, boolean admin) {
+        super(server, player, id);
+        this.admin = admin;
+    }
+
+    /**
+     * Determines whether the request is made for an admin.
+     *
+     * @return whether the request is made for an admin
+     */
+    public boolean isAdmin() {
+        return admin;
+    }
+
+    @Override
+    public String getChannel() {
+        return CHANNEL;
+    }
+
+}
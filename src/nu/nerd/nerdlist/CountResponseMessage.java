@@ -0,0 +1,56 @@
+package nu.nerd.nerdlist;
+
+/**
+ * The number of players on a server, sent in answer to a
+ * {@link CountRequestMessage}. No player names are sent, so the size of a
+ * response only depends on the number of groups.
+ */
+public class CountResponseMessage extends ListMessage {
+
+    /**
+     * The subchannel over which count responses are sent.
+     */
+    public static final String CHANNEL = "NerdListCounted";
+
+    private final boolean admin;
+    private final ServerCounts counts;
+
+    /**
+     * Creates a new count response.
+     *
+     * @param server the responding server, or null if not yet known
+     * @param player the player who made the request, or an empty string
+     * @param id the id sent with the request, or {@link #NO_ID}
+     * @param admin whether the request was made for an admin
+     * @param counts the responding server's counts
+     */
+    public CountResponseMessage(String server, String player, int id, boolean admin, ServerCounts counts) {
+        super(server, player, id);
+        this.admin = admin;
+        this.counts = counts;
+    }
+
+    /**
+     * Determines whether the request was made for an admin.
+     *
+     * @return whether the request was made for an admin
+     */
+    public boolean isAdmin() {
+        return admin;
+    }
+
+    /**
+     * Gets the responding server's counts.
+     *
+     * @return the counts
+     */
+    public ServerCounts getCounts() {
+        return counts;
+    }
+
+    @Override
+    public String getChannel() {
+        return CHANNEL;
+    }
+
+}
@@ -0,0 +1,67 @@
+package nu.nerd.nerdlist;
+
+/**
+ * A request for the players on another server whose names start with a
+ * prefix. Find messages are only sent in the binary format.
+ */
+public class FindRequestMessage extends ListMessage {
+
+    /**
+     * The subchannel over which find requests are sent.
+     */
+    public static final String CHANNEL = "NerdListFind";
+
+    private final boolean admin;
+    private final String prefix;
+    private final int limit;
+
+    /**
+     * Creates a new find request.
+     *
+     * @param server the requesting server, or null if not yet known
+     * @param player the requesting player
+     * @param id the id to send back with the response
+     * @param admin whether the requesting player is an admin
+     * @param prefix the prefix to match names against, ignoring case
+     * @param limit the most players to send back
+     */
+    public FindRequestMessage(String server, String player, int id, boolean admin, String prefix, int limit) {
+        super(server, player, id);
+        this.admin = admin;
+        this.prefix = prefix;
+        this.limit = limit;
+    }
+
+    /**
+     * Determines whether the requesting player is an admin.
+     *
+     * @return whether the player is an admin
+     */
+    public boolean isAdmin() {
+        return admin;
+    }
+
+    /**
+     * Gets the prefix to match names against.
+     *
+     * @return the prefix
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * Gets the most players to send back.
+     *
+     * @return the limit
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public String getChannel() {
+        return CHANNEL;
+    }
+
+}
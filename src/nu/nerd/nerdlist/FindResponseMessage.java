@@ -0,0 +1,60 @@
+package nu.nerd.nerdlist;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * The players on a server that matched a {@link FindRequestMessage}. Only the
+ * matching players are sent, so the size of a response does not depend on
+ * how many players are online.
+ */
+public class FindResponseMessage extends ListMessage {
+
+    /**
+     * The subchannel over which find responses are sent.
+     */
+    public static final String CHANNEL = "NerdListFound";
+
+    private final Map<String, Collection<String>> matches;
+
+    /**
+     * Creates a new find response.
+     *
+     * @param server the responding server, or null if not yet known
+     * @param player the player who made the request
+     * @param id the id sent with the request
+     * @param matches the matching players, separated by group name
+     */
+    public FindResponseMessage(String server, String player, int id, Map<String, Collection<String>> matches) {
+        super(server, player, id);
+        this.matches = matches;
+    }
+
+    /**
+     * Gets the matching players.
+     *
+     * @return the matching players, separated by group name
+     */
+    public Map<String, Collection<String>> getMatches() {
+        return matches;
+    }
+
+    /**
+     * Gets the number of matching players.
+     *
+     * @return the count
+     */
+    public int getCount() {
+        int count = 0;
+        for (Collection<String> players : matches.values()) {
+            count += players.size();
+        }
+        return count;
+    }
+
+    @Override
+    public String getChannel() {
+        return CHANNEL;
+    }
+
+}
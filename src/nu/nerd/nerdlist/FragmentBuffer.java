@@ -0,0 +1,205 @@
+package nu.nerd.nerdlist;
+
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits payloads that are too large for a single plugin message into
+ * numbered fragments, and reassembles received fragments.
+ * <p>
+ * Incomplete messages are discarded once they time out, and the oldest are
+ * discarded first when the buffered fragments exceed a fixed size.
+ */
+public class FragmentBuffer {
+
+    /**
+     * The largest payload sent in a single plugin message.
+     */
+    public static final int MAX_PAYLOAD = 30000;
+
+    /**
+     * The largest number of fragments a message may be split into.
+     */
+    public static final int MAX_FRAGMENTS = 256;
+
+    private static final int MAX_BUFFERED = 8 * 1024 * 1024;
+    private static final long TIMEOUT = 10000;
+
+    private final Map<String, Partial> partials;
+    private int buffered;
+    private int nextId;
+
+    /**
+     * Creates an empty buffer.
+     */
+    public FragmentBuffer() {
+        partials = new LinkedHashMap<String, Partial>();
+    }
+
+    /**
+     * Splits a payload into fragments.
+     *
+     * @param origin the server sending the payload
+     * @param channel the subchannel the payload belongs to
+     * @param payload the payload
+     * @return the fragments
+     * @throws IllegalArgumentException if the payload needs more than {@link #MAX_FRAGMENTS} fragments
+     */
+    public List<byte[]> split(String origin, String channel, byte[] payload) {
+        int count = (payload.length + MAX_PAYLOAD - 1) / MAX_PAYLOAD;
+        if (count > MAX_FRAGMENTS) {
+            throw new IllegalArgumentException("Payload of " + payload.length + " bytes is too large to send");
+        }
+        int id = nextId++;
+        List<byte[]> fragments = new ArrayList<byte[]>(count);
+        for (int index = 0; index < count; index++) {
+            int offset = index * MAX_PAYLOAD;
+            ByteArrayDataOutput out = ByteStreams.newDataOutput();
+            out.writeUTF(origin);
+            out.writeInt(id);
+            out.writeUTF(channel);
+            out.writeShort(index);
+            out.writeShort(count);
+            out.write(payload, offset, Math.min(MAX_PAYLOAD, payload.length - offset));
+            fragments.add(out.toByteArray());
+        }
+        return fragments;
+    }
+
+    /**
+     * Adds a received fragment to the buffer.
+     *
+     * @param fragment the fragment
+     * @return the reassembled message if this was its last missing fragment, otherwise null
+     * @throws IllegalArgumentException if the fragment is malformed
+     */
+    public Message add(byte[] fragment) {
+        long now = System.currentTimeMillis();
+        expire(now);
+
+        ByteArrayInputStream bytes = new ByteArrayInputStream(fragment);
+        DataInputStream in = new DataInputStream(bytes);
+        String key;
+        String channel;
+        int index;
+        int count;
+        byte[] data;
+        try {
+            key = in.readUTF() + ':' + in.readInt();
+            channel = in.readUTF();
+            index = in.readUnsignedShort();
+            count = in.readUnsignedShort();
+            data = new byte[bytes.available()];
+            in.readFully(data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Truncated fragment", e);
+        }
+        if (count == 0 || count > MAX_FRAGMENTS || index >= count) {
+            throw new IllegalArgumentException("Invalid fragment " + index + " of " + count);
+        }
+
+        Partial partial = partials.get(key);
+        if (partial == null) {
+            partial = new Partial(channel, count, now);
+            partials.put(key, partial);
+        } else if (partial.fragments.length != count || !partial.channel.equals(channel)) {
+            throw new IllegalArgumentException("Fragment does not match message " + key);
+        }
+        if (partial.fragments[index] == null) {
+            partial.fragments[index] = data;
+            partial.received++;
+            partial.size += data.length;
+            buffered += data.length;
+        }
+
+        if (partial.received == count) {
+            partials.remove(key);
+            buffered -= partial.size;
+            byte[] payload = new byte[partial.size];
+            int offset = 0;
+            for (byte[] part : partial.fragments) {
+                System.arraycopy(part, 0, payload, offset, part.length);
+                offset += part.length;
+            }
+            return new Message(partial.channel, payload);
+        }
+
+        Iterator<Partial> oldest = partials.values().iterator();
+        while (buffered > MAX_BUFFERED && oldest.hasNext()) {
+            buffered -= oldest.next().size;
+            oldest.remove();
+        }
+        return null;
+    }
+
+    private void expire(long now) {
+        Iterator<Partial> oldest = partials.values().iterator();
+        while (oldest.hasNext()) {
+            Partial partial = oldest.next();
+            if (now - partial.started < TIMEOUT) {
+                break;
+            }
+            buffered -= partial.size;
+            oldest.remove();
+        }
+    }
+
+    /**
+     * A message reassembled from its fragments.
+     */
+    public static class Message {
+
+        private final String channel;
+        private final byte[] payload;
+
+        private Message(String channel, byte[] payload) {
+            this.channel = channel;
+            this.payload = payload;
+        }
+
+        /**
+         * Gets the subchannel the message belongs to.
+         *
+         * @return the subchannel
+         */
+        public String getChannel() {
+            return channel;
+        }
+
+        /**
+         * Gets the reassembled payload.
+         *
+         * @return the payload
+         */
+        public byte[] getPayload() {
+            return payload;
+        }
+
+    }
+
+    private static class Partial {
+
+        private final String channel;
+        private final byte[][] fragments;
+        private final long started;
+        private int received;
+        private int size;
+
+        private Partial(String channel, int count, long started) {
+            this.channel = channel;
+            this.fragments = new byte[count][];
+            this.started = started;
+        }
+
+    }
+
+}
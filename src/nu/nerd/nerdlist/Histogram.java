@@ -0,0 +1,107 @@
+package nu.nerd.nerdlist;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of values counted into fixed buckets.
+ */
+public class Histogram {
+
+    private final long[] bounds;
+    private final AtomicLongArray buckets;
+    private final AtomicLong count;
+    private final AtomicLong sum;
+
+    /**
+     * Creates a histogram with the given bucket bounds. Each bucket counts the
+     * values up to and including its bound; larger values are counted in a
+     * final overflow bucket.
+     *
+     * @param bounds the upper bounds of the buckets, in increasing order
+     */
+    public Histogram(long... bounds) {
+        this.bounds = bounds.clone();
+        buckets = new AtomicLongArray(bounds.length + 1);
+        count = new AtomicLong();
+        sum = new AtomicLong();
+    }
+
+    /**
+     * Records a value.
+     *
+     * @param value the value
+     */
+    public void record(long value) {
+        int bucket = 0;
+        while (bucket < bounds.length && value > bounds[bucket]) {
+            bucket++;
+        }
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        sum.addAndGet(value);
+    }
+
+    /**
+     * Gets the number of recorded values.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Gets the sum of the recorded values.
+     *
+     * @return the sum
+     */
+    public long getSum() {
+        return sum.get();
+    }
+
+    /**
+     * Gets the upper bounds of the buckets, excluding the overflow bucket.
+     *
+     * @return the bounds
+     */
+    public long[] getBounds() {
+        return bounds.clone();
+    }
+
+    /**
+     * Gets the number of values counted in the given bucket.
+     *
+     * @param bucket the bucket index; the overflow bucket is {@code getBounds().length}
+     * @return the count
+     */
+    public long getBucket(int bucket) {
+        return buckets.get(bucket);
+    }
+
+    /**
+     * Estimates a percentile as the bound of the bucket it falls into.
+     *
+     * @param percentile the percentile, from 0 to 100
+     * @return the estimate, or -1 if it falls into the overflow bucket or nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        for (int bucket = 0; bucket <= bounds.length; bucket++) {
+            total += buckets.get(bucket);
+        }
+        if (total == 0) {
+            return -1;
+        }
+        long target = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int bucket = 0; bucket < bounds.length; bucket++) {
+            seen += buckets.get(bucket);
+            if (seen >= target) {
+                return bounds[bucket];
+            }
+        }
+        return -1;
+    }
+
+}
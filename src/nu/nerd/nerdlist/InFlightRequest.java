@@ -0,0 +1,100 @@
+package nu.nerd.nerdlist;
+
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A request for another server's player list that has not been answered yet.
+ * Players who ask for the same list while it is in flight wait for the same
+ * response instead of sending their own request.
+ */
+public class InFlightRequest {
+
+    private final int id;
+    private final String key;
+    private final Set<UUID> waiting;
+    private final long started;
+    private BukkitTask timeout;
+
+    /**
+     * Creates a new in-flight request.
+     *
+     * @param id the id sent with the request
+     * @param key the key identifying the server and kind of request
+     */
+    public InFlightRequest(int id, String key) {
+        this.id = id;
+        this.key = key;
+        waiting = new LinkedHashSet<UUID>();
+        started = System.nanoTime();
+    }
+
+    /**
+     * Adds a player waiting for the response.
+     *
+     * @param player the player's unique ID
+     */
+    public void addWaiting(UUID player) {
+        waiting.add(player);
+    }
+
+    /**
+     * Gets the players waiting for the response.
+     *
+     * @return the players' unique IDs
+     */
+    public Set<UUID> getWaiting() {
+        return Collections.unmodifiableSet(waiting);
+    }
+
+    /**
+     * Gets the id sent with the request.
+     *
+     * @return the id
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Gets the key identifying the server and kind of request.
+     *
+     * @return the key
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Gets when the request was sent.
+     *
+     * @return the time, from {@link System#nanoTime()}
+     */
+    public long getStarted() {
+        return started;
+    }
+
+    /**
+     * Sets the task that abandons this request when its deadline passes.
+     *
+     * @param timeout the task
+     */
+    public void setTimeout(BukkitTask timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Cancels the task that abandons this request when its deadline passes.
+     */
+    public void cancelTimeout() {
+        if (timeout != null) {
+            timeout.cancel();
+            timeout = null;
+        }
+    }
+
+}
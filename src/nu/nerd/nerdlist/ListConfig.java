@@ -0,0 +1,533 @@
+package nu.nerd.nerdlist;
+
+import org.bukkit.ChatColor;
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * A parsed copy of config.yml. Settings never change once parsed; reloading
+ * the config parses a new copy and replaces the old one as a whole, so a
+ * copy may be read from any thread without seeing a half-reloaded config.
+ */
+public class ListConfig {
+
+    private final int visibility;
+    private final boolean legacyWireFormat;
+    private final String outputIntro;
+    private final String outputLabel;
+    private final List<ChatColor> outputListColors;
+    private final String outputListDelimiter;
+    private final String outputCount;
+    private final String outputNetworkCount;
+    private final String outputMissing;
+    private final String outputPage;
+    private final int pageSize;
+    private final String outputFindMatch;
+    private final String outputFindNone;
+    private final int findLimit;
+    private final String outputCountServer;
+    private final long countTTL;
+    private final List<ListGroup> displayGroups;
+    private final List<ListGroup> testGroups;
+    private final long saveInterval;
+    private final long gatherTimeout;
+    private final boolean replicationEnabled;
+    private final long snapshotInterval;
+    private final int pendingCapacity;
+    private final long pendingTTL;
+    private final long statsInterval;
+    private final long serverListInterval;
+    private final int compressionThreshold;
+    private final String serverName;
+    private final String transportType;
+    private final InetSocketAddress transportAddress;
+    private final Map<String, InetSocketAddress> transportPeers;
+    private final boolean httpEnabled;
+    private final InetSocketAddress httpAddress;
+    private final long httpRefreshInterval;
+
+    /**
+     * Parses the config. Invalid settings are reported to the logger and
+     * replaced with their defaults. This does not touch the server, so it may
+     * be called from any thread.
+     *
+     * @param config the config
+     * @param logger the logger for invalid settings
+     */
+    public ListConfig(ConfigurationSection config, Logger logger) {
+        String visibilityString = config.getString("visibility", "ALL").toUpperCase();
+        switch (visibilityString) {
+            case "ALL":
+                visibility = 2;
+                break;
+            case "ADMIN":
+                visibility = 1;
+                break;
+            case "NONE":
+                visibility = 0;
+                break;
+            default:
+                logger.warning("Invalid visibility '" + visibilityString + "'; defaulting to ALL. Please check " +
+                        "config.yml");
+                visibility = 2;
+                break;
+        }
+
+        String wireFormatString = config.getString("wire-format", "BINARY").toUpperCase();
+        switch (wireFormatString) {
+            case "BINARY":
+                legacyWireFormat = false;
+                break;
+            case "JSON":
+                legacyWireFormat = true;
+                break;
+            default:
+                logger.warning("Invalid wire format '" + wireFormatString + "'; defaulting to BINARY. Please " +
+                        "check config.yml");
+                legacyWireFormat = false;
+                break;
+        }
+
+        outputIntro = config.getString("output.intro", "Online players:");
+        outputLabel = config.getString("output.label", "§6%s: ");
+        List<ChatColor> outputListColors = new ArrayList<ChatColor>();
+        for (String color : config.getStringList("output.list.colors")) {
+            try {
+                outputListColors.add(ChatColor.valueOf(color.toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                logger.warning("Invalid list color '" + color + "'. Please check config.yml");
+            }
+        }
+        if (outputListColors.isEmpty()) {
+            outputListColors.add(ChatColor.WHITE);
+        }
+        this.outputListColors = Collections.unmodifiableList(outputListColors);
+        outputListDelimiter = config.getString("output.list.delimiter", " ");
+        outputCount = config.getString("outputCount", "§7Total:§f %d players");
+        outputNetworkCount = config.getString("output.network-count", "§7Network total:§f %d players on %d servers");
+        outputMissing = config.getString("output.missing", "§7No response from:§f %s");
+        outputPage = config.getString("output.page", "§7Page %d of %d");
+        pageSize = Math.max(0, config.getInt("output.page-size", 50));
+        outputFindMatch = config.getString("output.find-match", "§f%s §7on §f%s §7(%s)");
+        outputFindNone = config.getString("output.find-none", "§7No online players match§f %s");
+        findLimit = Math.max(1, config.getInt("output.find-limit", 20));
+        outputCountServer = config.getString("output.count-server", "§6%s:§f %d players §7%s");
+        countTTL = Math.max(0, (long) (config.getDouble("count-cache-ttl", 5) * 1000));
+        saveInterval = Math.max(1, config.getLong("save-interval", 5)) * 20;
+        gatherTimeout = Math.max(1, (long) (config.getDouble("gather-timeout", 2) * 20));
+        replicationEnabled = config.getBoolean("replication.enabled", false);
+        snapshotInterval = Math.max(1, config.getLong("replication.snapshot-interval", 60)) * 20;
+        pendingCapacity = config.getInt("pending.capacity", 100);
+        pendingTTL = Math.max(1, config.getLong("pending.ttl", 10)) * 1000;
+        statsInterval = Math.max(0, config.getLong("stats.dump-interval", 60)) * 20;
+        serverListInterval = Math.max(1, config.getLong("server-list.refresh-interval", 60)) * 20;
+        compressionThreshold = config.getBoolean("compression.enabled", true)
+                ? Math.max(1, config.getInt("compression.threshold", 1024)) : 0;
+        String serverName = config.getString("server-name", "");
+        this.serverName = serverName == null || serverName.isEmpty() ? null : serverName;
+
+        transportType = config.getString("transport.type", "BUNGEE").toUpperCase();
+        transportAddress = parseAddress(config.getString("transport.bind", "127.0.0.1:25590"), logger);
+        Map<String, InetSocketAddress> transportPeers = new HashMap<String, InetSocketAddress>();
+        ConfigurationSection peerSection = config.getConfigurationSection("transport.peers");
+        if (peerSection != null) {
+            for (String peer : peerSection.getKeys(false)) {
+                InetSocketAddress address = parseAddress(peerSection.getString(peer), logger);
+                if (address != null) {
+                    transportPeers.put(peer, address);
+                }
+            }
+        }
+        this.transportPeers = Collections.unmodifiableMap(transportPeers);
+        httpEnabled = config.getBoolean("http.enabled", false);
+        httpAddress = httpEnabled ? parseAddress(config.getString("http.bind", "127.0.0.1:25591"), logger) : null;
+        httpRefreshInterval = Math.max(1, (long) (config.getDouble("http.refresh-interval", 1) * 20));
+
+        List<ListGroup> displayGroups = new ArrayList<ListGroup>();
+        for (Map group : config.getMapList("groups")) {
+            try {
+                String name = (String) group.get("name");
+                String permission = (String) group.get("permission");
+                int priority = (int) group.get("priority");
+                displayGroups.add(new ListGroup(name, permission, priority));
+            } catch (Exception e) {
+                logger.warning("An error was found in your group definitions. Please check config.yml");
+                e.printStackTrace();
+            }
+        }
+        List<ListGroup> testGroups = new ArrayList<ListGroup>(displayGroups);
+        Collections.sort(testGroups);
+        this.displayGroups = Collections.unmodifiableList(displayGroups);
+        this.testGroups = Collections.unmodifiableList(testGroups);
+    }
+
+    /**
+     * Parses a host and port, as written in the config.
+     *
+     * @param address the address, as host:port
+     * @param logger the logger to report an invalid address to
+     * @return the address, or null if it is invalid
+     */
+    private static InetSocketAddress parseAddress(String address, Logger logger) {
+        int colon = address == null ? -1 : address.lastIndexOf(':');
+        try {
+            if (colon >= 0) {
+                InetSocketAddress parsed = new InetSocketAddress(address.substring(0, colon),
+                        Integer.parseInt(address.substring(colon + 1)));
+                if (!parsed.isUnresolved()) {
+                    return parsed;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // Reported below
+        }
+        logger.warning("Invalid address '" + address + "'. Please check config.yml");
+        return null;
+    }
+
+    /**
+     * Determines whether the other config selects the same transport with
+     * the same addresses.
+     *
+     * @param other the other config, or null
+     * @return whether the transport settings are the same
+     */
+    public boolean isSameTransport(ListConfig other) {
+        return other != null && transportType.equals(other.transportType)
+                && (transportAddress == null ? other.transportAddress == null
+                : transportAddress.equals(other.transportAddress))
+                && transportPeers.equals(other.transportPeers);
+    }
+
+    /**
+     * Determines whether the other config serves the HTTP endpoint on the
+     * same address.
+     *
+     * @param other the other config, or null
+     * @return whether the HTTP settings are the same
+     */
+    public boolean isSameHttp(ListConfig other) {
+        return other != null && httpEnabled == other.httpEnabled
+                && (httpAddress == null ? other.httpAddress == null : httpAddress.equals(other.httpAddress));
+    }
+
+    /**
+     * Gets this server's list visibility: 2 for everyone, 1 for admins only,
+     * or 0 for nobody.
+     *
+     * @return the visibility
+     */
+    public int getVisibility() {
+        return visibility;
+    }
+
+    /**
+     * Determines whether requests are sent in the legacy JSON format.
+     *
+     * @return whether to use the legacy JSON format
+     */
+    public boolean isLegacyWireFormat() {
+        return legacyWireFormat;
+    }
+
+    /**
+     * Gets the format of the first line of a list, given the server name.
+     *
+     * @return the intro format
+     */
+    public String getOutputIntro() {
+        return outputIntro;
+    }
+
+    /**
+     * Gets the format of a group's label, given the group name.
+     *
+     * @return the label format
+     */
+    public String getOutputLabel() {
+        return outputLabel;
+    }
+
+    /**
+     * Gets the colors that listed names cycle through.
+     *
+     * @return the colors, never empty
+     */
+    public List<ChatColor> getOutputListColors() {
+        return outputListColors;
+    }
+
+    /**
+     * Gets the text between listed names.
+     *
+     * @return the delimiter
+     */
+    public String getOutputListDelimiter() {
+        return outputListDelimiter;
+    }
+
+    /**
+     * Gets the format of the last line of a list, given the player count.
+     *
+     * @return the count format
+     */
+    public String getOutputCount() {
+        return outputCount;
+    }
+
+    /**
+     * Gets the format of the network total, given the player and server
+     * counts.
+     *
+     * @return the network count format
+     */
+    public String getOutputNetworkCount() {
+        return outputNetworkCount;
+    }
+
+    /**
+     * Gets the format of the line naming servers that did not respond.
+     *
+     * @return the missing format
+     */
+    public String getOutputMissing() {
+        return outputMissing;
+    }
+
+    /**
+     * Gets the format of the page footer, given the page and page count.
+     *
+     * @return the page format
+     */
+    public String getOutputPage() {
+        return outputPage;
+    }
+
+    /**
+     * Gets the number of players listed per page.
+     *
+     * @return the page size, or 0 if lists are not paged
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Gets the format of a player found by /list find, given the player's
+     * name, server and group.
+     *
+     * @return the find match format
+     */
+    public String getOutputFindMatch() {
+        return outputFindMatch;
+    }
+
+    /**
+     * Gets the format of the line shown when /list find matches nobody,
+     * given the name searched for.
+     *
+     * @return the find none format
+     */
+    public String getOutputFindNone() {
+        return outputFindNone;
+    }
+
+    /**
+     * Gets the most players /list find returns from each server.
+     *
+     * @return the find limit
+     */
+    public int getFindLimit() {
+        return findLimit;
+    }
+
+    /**
+     * Gets the format of a server's line in /list count, given the server
+     * name, its player count and the count of each group.
+     *
+     * @return the count server format
+     */
+    public String getOutputCountServer() {
+        return outputCountServer;
+    }
+
+    /**
+     * Gets how long player counts received from other servers are reused.
+     *
+     * @return the time to live, in milliseconds
+     */
+    public long getCountTTL() {
+        return countTTL;
+    }
+
+    /**
+     * Gets the groups in display order.
+     *
+     * @return the groups
+     */
+    public List<ListGroup> getDisplayGroups() {
+        return displayGroups;
+    }
+
+    /**
+     * Gets the groups in the order players are tested against them.
+     *
+     * @return the groups
+     */
+    public List<ListGroup> getTestGroups() {
+        return testGroups;
+    }
+
+    /**
+     * Gets how long to wait before saving changes to the hidden players.
+     *
+     * @return the interval, in ticks
+     */
+    public long getSaveInterval() {
+        return saveInterval;
+    }
+
+    /**
+     * Gets how long to wait for responses to a list request.
+     *
+     * @return the timeout, in ticks
+     */
+    public long getGatherTimeout() {
+        return gatherTimeout;
+    }
+
+    /**
+     * Determines whether rosters are pushed to other servers.
+     *
+     * @return whether replication is enabled
+     */
+    public boolean isReplicationEnabled() {
+        return replicationEnabled;
+    }
+
+    /**
+     * Gets how often full roster snapshots are pushed.
+     *
+     * @return the interval, in ticks
+     */
+    public long getSnapshotInterval() {
+        return snapshotInterval;
+    }
+
+    /**
+     * Gets the most requests that may wait to be sent.
+     *
+     * @return the pending queue capacity
+     */
+    public int getPendingCapacity() {
+        return pendingCapacity;
+    }
+
+    /**
+     * Gets how long requests may wait to be sent.
+     *
+     * @return the time to live, in milliseconds
+     */
+    public long getPendingTTL() {
+        return pendingTTL;
+    }
+
+    /**
+     * Gets how often the statistics are written to stats.prom.
+     *
+     * @return the interval, in ticks, or 0 if they are not written
+     */
+    public long getStatsInterval() {
+        return statsInterval;
+    }
+
+    /**
+     * Gets how often the servers on the network are requested from BungeeCord.
+     *
+     * @return the interval, in ticks
+     */
+    public long getServerListInterval() {
+        return serverListInterval;
+    }
+
+    /**
+     * Gets the smallest encoded roster that is compressed before it is sent.
+     *
+     * @return the threshold, in bytes, or 0 if compression is disabled
+     */
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Gets the server name set in the config.
+     *
+     * @return the server name, or null to ask BungeeCord
+     */
+    public String getServerName() {
+        return serverName;
+    }
+
+    /**
+     * Gets the transport used to reach other servers: BUNGEE, SOCKET or
+     * LOOPBACK.
+     *
+     * @return the transport type
+     */
+    public String getTransportType() {
+        return transportType;
+    }
+
+    /**
+     * Gets the address the socket transport listens on.
+     *
+     * @return the address, or null if it is invalid
+     */
+    public InetSocketAddress getTransportAddress() {
+        return transportAddress;
+    }
+
+    /**
+     * Gets the addresses of the other servers for the socket transport.
+     *
+     * @return the addresses, by server name
+     */
+    public Map<String, InetSocketAddress> getTransportPeers() {
+        return transportPeers;
+    }
+
+    /**
+     * Determines whether the roster is served over HTTP.
+     *
+     * @return whether the HTTP endpoint is enabled
+     */
+    public boolean isHttpEnabled() {
+        return httpEnabled;
+    }
+
+    /**
+     * Gets the address the HTTP endpoint listens on.
+     *
+     * @return the address, or null if it is invalid or the endpoint is disabled
+     */
+    public InetSocketAddress getHttpAddress() {
+        return httpAddress;
+    }
+
+    /**
+     * Gets how often the HTTP endpoint checks for roster changes.
+     *
+     * @return the interval, in ticks
+     */
+    public long getHttpRefreshInterval() {
+        return httpRefreshInterval;
+    }
+
+}
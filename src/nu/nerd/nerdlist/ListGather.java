@@ -0,0 +1,191 @@
+package nu.nerd.nerdlist;
+
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * A request for every server's player list, gathering the responses into one
+ * network-wide list. Each response is rendered as it arrives, so only the
+ * rendered messages are kept until the list is complete. The same is done to
+ * gather the players matching a /list find query, and player counts.
+ */
+public class ListGather {
+
+    /**
+     * What is being gathered.
+     */
+    public enum Type {
+        /**
+         * Each server's player list.
+         */
+        LIST,
+        /**
+         * The players matching a name prefix.
+         */
+        FIND,
+        /**
+         * Each server's player counts.
+         */
+        COUNT
+    }
+
+    private final int id;
+    private final UUID player;
+    private final Type type;
+    private final String query;
+    private final Set<String> pending;
+    private final Map<String, List<String>> servers;
+    private int total;
+    private final long started;
+    private BukkitTask timeout;
+
+    /**
+     * Creates a new gather.
+     *
+     * @param id the id sent with the request
+     * @param player the player requesting the list
+     * @param expected the servers expected to respond
+     */
+    public ListGather(int id, UUID player, Collection<String> expected) {
+        this(id, player, expected, Type.LIST, null);
+    }
+
+    /**
+     * Creates a new gather.
+     *
+     * @param id the id sent with the request
+     * @param player the player making the request, or null for the console
+     * @param expected the servers expected to respond
+     * @param type what is being gathered
+     * @param query the name prefix searched for, or the single server counted, or null
+     */
+    public ListGather(int id, UUID player, Collection<String> expected, Type type, String query) {
+        this.id = id;
+        this.player = player;
+        this.type = type;
+        this.query = query;
+        pending = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+        pending.addAll(expected);
+        servers = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+        started = System.nanoTime();
+    }
+
+    /**
+     * Adds a server's rendered player list. Repeated responses from the same
+     * server are ignored.
+     *
+     * @param server the server
+     * @param messages the server's rendered player list
+     * @param count the number of players listed
+     * @return whether every expected server has now responded
+     */
+    public boolean add(String server, List<String> messages, int count) {
+        if (!servers.containsKey(server)) {
+            servers.put(server, messages);
+            pending.remove(server);
+            total += count;
+        }
+        return pending.isEmpty();
+    }
+
+    /**
+     * Gets the id sent with the request.
+     *
+     * @return the id
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Gets the unique ID of the player requesting the list.
+     *
+     * @return the player's unique ID, or null for the console
+     */
+    public UUID getPlayer() {
+        return player;
+    }
+
+    /**
+     * Gets what is being gathered.
+     *
+     * @return the type
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Gets the name prefix searched for, or the single server counted.
+     *
+     * @return the query, or null if there is none
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * Gets the rendered player list of each server that has responded, in
+     * order of server name.
+     *
+     * @return the rendered lists
+     */
+    public Map<String, List<String>> getServers() {
+        return Collections.unmodifiableMap(servers);
+    }
+
+    /**
+     * Gets the expected servers that have not yet responded.
+     *
+     * @return the pending servers
+     */
+    public Set<String> getPending() {
+        return Collections.unmodifiableSet(pending);
+    }
+
+    /**
+     * Gets the total number of players listed by the servers that have responded.
+     *
+     * @return the total
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * Gets when the request was sent.
+     *
+     * @return the time, from {@link System#nanoTime()}
+     */
+    public long getStarted() {
+        return started;
+    }
+
+    /**
+     * Sets the task that completes this gather when its deadline passes.
+     *
+     * @param timeout the task
+     */
+    public void setTimeout(BukkitTask timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Cancels the task that completes this gather when its deadline passes.
+     */
+    public void cancelTimeout() {
+        if (timeout != null) {
+            timeout.cancel();
+            timeout = null;
+        }
+    }
+
+}
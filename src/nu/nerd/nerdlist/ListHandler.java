@@ -4,27 +4,51 @@ import com.google.common.collect.Iterables;
 import com.google.common.io.ByteArrayDataInput;
 import com.google.common.io.ByteArrayDataOutput;
 import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 import org.bukkit.plugin.messaging.PluginMessageListener;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 
-public class ListHandler implements PluginMessageListener {
+public class ListHandler implements PluginMessageListener, Transport.Receiver {
+
+    private static final String FRAGMENT_CHANNEL = "NerdListFragment";
 
     private NerdList plugin;
-    private Queue<ListRequest> requests;
-    private JSONParser parser;
+    private ListMetrics metrics;
+    private PendingQueue requests;
+    private MessageCodec codec;
+    private ResponseCache responses;
+    private FragmentBuffer fragments;
+    private FragmentBuffer incomingFragments;
+    private Map<String, RosterDictionary> dictionaries;
+    private ExecutorService decoder;
+    private OutboundQueue outbound;
+    private Transport transport;
+    private boolean drainScheduled;
+    private Map<Integer, ListGather> gathers;
+    private Map<String, InFlightRequest> inFlight;
+    private Map<Integer, InFlightRequest> inFlightById;
+    private ServerDirectory directory;
+    private CountCache counts;
+    private long countsRefreshed;
+    private int nextId;
 
     /**
      * Creates a new ListHandler.
@@ -33,8 +57,26 @@ public class ListHandler implements PluginMessageListener {
      */
     public ListHandler(NerdList plugin) {
         this.plugin = plugin;
-        requests = new LinkedList<ListRequest>();
-        parser = new JSONParser();
+        metrics = plugin.getMetrics();
+        requests = new PendingQueue(plugin.getPendingCapacity(), plugin.getPendingTTL());
+        codec = new MessageCodec();
+        responses = new ResponseCache(codec);
+        fragments = new FragmentBuffer();
+        incomingFragments = new FragmentBuffer();
+        // Written on the decoder thread, read when sending requests
+        dictionaries = new ConcurrentHashMap<String, RosterDictionary>();
+        // A single thread keeps messages from each server in order
+        decoder = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("NerdList Decoder")
+                .setDaemon(true)
+                .build());
+        outbound = new OutboundQueue();
+        transport = new BungeeTransport(plugin);
+        gathers = new HashMap<Integer, ListGather>();
+        inFlight = new HashMap<String, InFlightRequest>();
+        inFlightById = new HashMap<Integer, InFlightRequest>();
+        directory = new ServerDirectory();
+        counts = new CountCache();
     }
 
     @Override
@@ -45,28 +87,333 @@ public class ListHandler implements PluginMessageListener {
             switch (subchannel) {
                 case "GetServer":
                     String server = in.readUTF();
-                    plugin.setServerName(server);
-                    flushQueue();
+                    plugin.confirmServerName(server);
+                    retryPending();
                     break;
-                case "NerdListRequest": {
-                    JSONObject content = readJSON(in);
-                    if (plugin.getVisibility() > 1 || plugin.getVisibility() > 0 && (boolean) content.get("admin")) {
-                        sendListResponse((String) content.get("server"), (String) content.get("player"));
-                    }
+                case "GetServers":
+                    List<String> servers = new ArrayList<String>(Arrays.asList(in.readUTF().split(", ")));
+                    servers.remove("");
+                    directory.setServers(servers);
+                    break;
+                case OutboundQueue.BATCH_CHANNEL:
+                case FRAGMENT_CHANNEL:
+                case ListRequestMessage.CHANNEL:
+                case ListResponseMessage.CHANNEL:
+                case RosterSyncMessage.CHANNEL:
+                case FindRequestMessage.CHANNEL:
+                case FindResponseMessage.CHANNEL:
+                case CountRequestMessage.CHANNEL:
+                case CountResponseMessage.CHANNEL:
+                    receive(subchannel, readPayload(in));
                     break;
+            }
+        }
+    }
+
+    @Override
+    public void receive(String channel, byte[] payload) {
+        switch (channel) {
+            case OutboundQueue.BATCH_CHANNEL:
+            case FRAGMENT_CHANNEL:
+            case ListRequestMessage.CHANNEL:
+            case ListResponseMessage.CHANNEL:
+            case RosterSyncMessage.CHANNEL:
+            case FindRequestMessage.CHANNEL:
+            case FindResponseMessage.CHANNEL:
+            case CountRequestMessage.CHANNEL:
+            case CountResponseMessage.CHANNEL:
+                metrics.messageReceived(payload.length);
+                decodeLater(channel, payload);
+                break;
+            default:
+                metrics.messageDiscarded();
+                break;
+        }
+    }
+
+    /**
+     * Decodes a message on the decoder thread, then handles it on the main thread.
+     *
+     * @param subchannel the subchannel the message was received on
+     * @param payload the message payload
+     */
+    private void decodeLater(final String subchannel, final byte[] payload) {
+        decoder.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    decode(subchannel, payload);
+                } catch (RuntimeException e) {
+                    metrics.messageDiscarded();
+                    plugin.getLogger().warning("Discarding malformed " + subchannel + ": " + e);
                 }
-                case "NerdListResponse": {
-                    JSONObject content = readJSON(in);
-                    Player recipient = plugin.getServer().getPlayer((String) content.get("player"));
+            }
+        });
+    }
+
+    /**
+     * Decodes a message. This runs on the decoder thread, so it must only touch
+     * state confined to that thread.
+     *
+     * @param subchannel the subchannel the message was received on
+     * @param payload the message payload
+     */
+    private void decode(String subchannel, final byte[] payload) {
+        switch (subchannel) {
+            case OutboundQueue.BATCH_CHANNEL:
+                for (OutboundQueue.Frame frame : OutboundQueue.unpack(payload)) {
+                    decode(frame.getChannel(), frame.getPayload());
+                }
+                break;
+            case FRAGMENT_CHANNEL: {
+                FragmentBuffer.Message assembled = incomingFragments.add(payload);
+                if (assembled != null) {
+                    decode(assembled.getChannel(), assembled.getPayload());
+                }
+                break;
+            }
+            case ListRequestMessage.CHANNEL: {
+                long start = System.nanoTime();
+                final ListRequestMessage request = codec.decodeRequest(payload);
+                metrics.decoded(System.nanoTime() - start);
+                runOnMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        handleRequest(request, codec.isJSON(payload));
+                    }
+                });
+                break;
+            }
+            case ListResponseMessage.CHANNEL: {
+                long start = System.nanoTime();
+                final ListResponseMessage response = codec.decodeResponse(payload, dictionaries);
+                metrics.decoded(System.nanoTime() - start);
+                runOnMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        handleResponse(response);
+                    }
+                });
+                break;
+            }
+            case RosterSyncMessage.CHANNEL: {
+                long start = System.nanoTime();
+                final RosterSyncMessage sync = codec.decodeSync(payload);
+                metrics.decoded(System.nanoTime() - start);
+                runOnMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        handleSync(sync);
+                    }
+                });
+                break;
+            }
+            case FindRequestMessage.CHANNEL: {
+                long start = System.nanoTime();
+                final FindRequestMessage request = codec.decodeFindRequest(payload);
+                metrics.decoded(System.nanoTime() - start);
+                runOnMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        handleFindRequest(request);
+                    }
+                });
+                break;
+            }
+            case FindResponseMessage.CHANNEL: {
+                long start = System.nanoTime();
+                final FindResponseMessage response = codec.decodeFindResponse(payload);
+                metrics.decoded(System.nanoTime() - start);
+                runOnMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        handleFindResponse(response);
+                    }
+                });
+                break;
+            }
+            case CountRequestMessage.CHANNEL: {
+                long start = System.nanoTime();
+                final CountRequestMessage request = codec.decodeCountRequest(payload);
+                metrics.decoded(System.nanoTime() - start);
+                runOnMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        handleCountRequest(request);
+                    }
+                });
+                break;
+            }
+            case CountResponseMessage.CHANNEL: {
+                long start = System.nanoTime();
+                final CountResponseMessage response = codec.decodeCountResponse(payload);
+                metrics.decoded(System.nanoTime() - start);
+                runOnMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        handleCountResponse(response);
+                    }
+                });
+                break;
+            }
+        }
+    }
+
+    private void runOnMainThread(Runnable task) {
+        if (plugin.isEnabled()) {
+            plugin.getServer().getScheduler().runTask(plugin, task);
+        }
+    }
+
+    private void handleRequest(ListRequestMessage request, boolean json) {
+        directory.addListServer(request.getServer());
+        if (plugin.getVisibility() > 1 || plugin.getVisibility() > 0 && request.isAdmin()) {
+            metrics.requestAnswered();
+            sendListResponse(request, json);
+        }
+    }
+
+    private void handleResponse(ListResponseMessage response) {
+        directory.addListServer(response.getServer());
+        if (!response.hasGroups()) {
+            resendUncompressed(response);
+            return;
+        }
+        if (response.getId() != ListMessage.NO_ID) {
+            ListGather gather = gathers.get(response.getId());
+            if (gather != null) {
+                metrics.responseReceived(System.nanoTime() - gather.getStarted());
+                Map<String, Collection<String>> groups = response.getGroups();
+                List<String> messages = plugin.getMessageList(groups, response.getServer(), response.getVersion());
+                if (gather.add(response.getServer(), messages, countPlayers(groups))) {
+                    completeGather(gather);
+                }
+                return;
+            }
+            InFlightRequest request = inFlightById.remove(response.getId());
+            if (request != null) {
+                metrics.responseReceived(System.nanoTime() - request.getStarted());
+                inFlight.remove(request.getKey());
+                request.cancelTimeout();
+                for (UUID waiting : request.getWaiting()) {
+                    Player recipient = plugin.getServer().getPlayer(waiting);
                     if (recipient != null) {
-                        plugin.sendMessageList(recipient,
-                                groupListToMap((List<Map<String, Object>>) content.get("groups")),
-                                (String) content.get("server"));
+                        plugin.sendMessageList(recipient, response.toSlice(), response.getServer(),
+                                response.getVersion());
                     }
+                }
+            }
+            return;
+        }
+        Player recipient = plugin.getServer().getPlayer(response.getPlayer());
+        if (recipient != null) {
+            plugin.sendMessageList(recipient, response.toSlice(), response.getServer(), response.getVersion());
+        }
+    }
+
+    private void handleFindRequest(FindRequestMessage request) {
+        directory.addListServer(request.getServer());
+        if (plugin.getVisibility() > 1 || plugin.getVisibility() > 0 && request.isAdmin()) {
+            metrics.requestAnswered();
+            int limit = Math.min(request.getLimit(), plugin.getFindLimit());
+            sendWithServerName(request.getServer(), new FindResponseMessage(null, request.getPlayer(),
+                    request.getId(), plugin.findPlayers(request.getPrefix(), limit)), false);
+        }
+    }
+
+    private void handleFindResponse(FindResponseMessage response) {
+        directory.addListServer(response.getServer());
+        ListGather gather = gathers.get(response.getId());
+        if (gather != null && gather.getType() == ListGather.Type.FIND) {
+            metrics.responseReceived(System.nanoTime() - gather.getStarted());
+            if (gather.add(response.getServer(), plugin.getFindMessageList(response.getMatches(),
+                    response.getServer()), response.getCount())) {
+                completeGather(gather);
+            }
+        }
+    }
+
+    private void handleCountRequest(CountRequestMessage request) {
+        directory.addListServer(request.getServer());
+        if (plugin.getVisibility() > 1 || plugin.getVisibility() > 0 && request.isAdmin()) {
+            metrics.requestAnswered();
+            sendWithServerName(request.getServer(), new CountResponseMessage(null, request.getPlayer(),
+                    request.getId(), request.isAdmin(), plugin.getServerCounts()), false);
+        }
+    }
+
+    private void handleCountResponse(CountResponseMessage response) {
+        directory.addListServer(response.getServer());
+        counts.put(response.getCounts(), response.isAdmin());
+        if (response.getId() != ListMessage.NO_ID) {
+            ListGather gather = gathers.get(response.getId());
+            if (gather != null && gather.getType() == ListGather.Type.COUNT) {
+                metrics.responseReceived(System.nanoTime() - gather.getStarted());
+                if (gather.add(response.getServer(), Collections.singletonList(
+                        plugin.getCountMessage(response.getCounts())), response.getCounts().getTotal())) {
+                    completeGather(gather);
+                }
+            }
+        }
+    }
+
+    /**
+     * Asks again for a list whose response could not be read, without naming
+     * a dictionary, so the answer can always be inflated.
+     *
+     * @param response the unreadable response
+     */
+    private void resendUncompressed(ListResponseMessage response) {
+        ListGather gather = gathers.get(response.getId());
+        InFlightRequest request = inFlightById.get(response.getId());
+        Player player = null;
+        if (gather != null && gather.getPending().contains(response.getServer())) {
+            player = plugin.getServer().getPlayer(gather.getPlayer());
+        } else if (request != null) {
+            for (UUID waiting : request.getWaiting()) {
+                player = plugin.getServer().getPlayer(waiting);
+                if (player != null) {
                     break;
                 }
             }
         }
+        if (player != null) {
+            int pageSize = gather != null ? 0 : plugin.getPageSize();
+            sendWithServerName(response.getServer(), new ListRequestMessage(null, player.getName(), response.getId(),
+                    player.hasPermission("nerdlist.admin"), response.getGroup(), response.getPage(), pageSize,
+                    plugin.getCompressionThreshold() > 0, ListResponseMessage.NO_VERSION), false);
+        }
+    }
+
+    private void handleSync(RosterSyncMessage sync) {
+        RosterReplicator replicator = plugin.getReplicator();
+        // A loopback transport hands this server its own roster
+        if (replicator != null && !sync.getServer().equalsIgnoreCase(plugin.getServerName())) {
+            directory.addListServer(sync.getServer());
+            replicator.receive(sync);
+        }
+    }
+
+    /**
+     * Replaces the transport used to send messages, closing the previous one.
+     *
+     * @param transport the new transport
+     */
+    public void setTransport(Transport transport) {
+        flushOutbound();
+        this.transport.close();
+        this.transport = transport;
+        retryPending();
+    }
+
+    /**
+     * Stops the decoder thread and the transport. Messages still being
+     * decoded are discarded.
+     */
+    public void shutdown() {
+        flushOutbound();
+        transport.close();
+        decoder.shutdownNow();
     }
 
     /**
@@ -76,10 +423,313 @@ public class ListHandler implements PluginMessageListener {
      * @param player the player requesting the list
      */
     public void sendListRequest(String server, Player player) {
-        JSONObject object = new JSONObject();
-        object.put("player", player.getName());
-        object.put("admin", player.hasPermission("nerdlist.admin"));
-        sendWithServerName(server, "NerdListRequest", object);
+        sendListRequest(server, player, null, 0);
+    }
+
+    /**
+     * Sends a request to the given server for one page of a player list.
+     *
+     * @param server the server to which to send the request
+     * @param player the player requesting the list
+     * @param group the name of the only group to list, or null for all groups
+     * @param page the page number, starting from 1, or 0 for the whole list
+     */
+    public void sendListRequest(String server, Player player, String group, int page) {
+        boolean admin = player.hasPermission("nerdlist.admin");
+        int pageSize = plugin.getPageSize();
+        if (plugin.isLegacyWireFormat()) {
+            // Older servers do not send the id back, so responses cannot be shared
+            sendWithServerName(server, new ListRequestMessage(null, player.getName(), ListMessage.NO_ID, admin, group,
+                    page, pageSize), true);
+            return;
+        }
+
+        // Admins and other players may see different lists, so their requests are never shared
+        String key = server.toLowerCase() + ':' + admin + ':' + (group == null ? "" : group.toLowerCase()) + ':'
+                + page;
+        InFlightRequest pending = inFlight.get(key);
+        if (pending != null) {
+            pending.addWaiting(player.getUniqueId());
+            metrics.requestShared();
+            return;
+        }
+        final InFlightRequest request = new InFlightRequest(nextId(), key);
+        request.addWaiting(player.getUniqueId());
+        inFlight.put(key, request);
+        inFlightById.put(request.getId(), request);
+        request.setTimeout(plugin.getServer().getScheduler().runTaskLater(plugin, new Runnable() {
+            @Override
+            public void run() {
+                inFlight.remove(request.getKey());
+                inFlightById.remove(request.getId());
+            }
+        }, plugin.getGatherTimeout()));
+        metrics.requestSent();
+        sendWithServerName(server, new ListRequestMessage(null, player.getName(), request.getId(), admin, group,
+                page, pageSize, plugin.getCompressionThreshold() > 0, getDictionaryVersion(server)), false);
+    }
+
+    /**
+     * Requests every server's player list, and sends them to the player as one
+     * network-wide list once every known server has responded or the gather
+     * timeout has passed.
+     *
+     * @param player the player requesting the list
+     */
+    public void gatherListRequest(Player player) {
+        List<RosterReplica> replicas = new ArrayList<RosterReplica>();
+        Set<String> expected = getExpectedServers(player.hasPermission("nerdlist.admin"), replicas);
+        final ListGather gather = new ListGather(nextId(), player.getUniqueId(), expected);
+        gathers.put(gather.getId(), gather);
+
+        Map<ListGroup, Collection<String>> local = plugin.getPlayerList();
+        String localServer = plugin.getServerName() == null ? "this server" : plugin.getServerName();
+        gather.add(localServer, plugin.getMessageList(local, localServer, plugin.getRosterVersion()),
+                countPlayers(local));
+
+        // Servers that push their roster can be listed without asking them
+        for (RosterReplica replica : replicas) {
+            gather.add(replica.getServer(), plugin.getMessageList(replica.getGroups(), replica.getServer(),
+                    replica.getVersion()), replica.getPlayerCount());
+        }
+        // Servers not yet seen to run NerdList are asked through a broadcast now and then
+        boolean probe = directory.probe(plugin.getServerName(), plugin.getServerListInterval() * 50);
+        if (!probe && gather.getPending().isEmpty()) {
+            completeGather(gather);
+            return;
+        }
+        gather.setTimeout(plugin.getServer().getScheduler().runTaskLater(plugin, new Runnable() {
+            @Override
+            public void run() {
+                completeGather(gather);
+            }
+        }, plugin.getGatherTimeout()));
+
+        boolean admin = player.hasPermission("nerdlist.admin");
+        boolean deflate = plugin.getCompressionThreshold() > 0;
+        metrics.requestSent();
+        if (probe) {
+            sendWithServerName("ALL", new ListRequestMessage(null, player.getName(), gather.getId(), admin, null, 0, 0,
+                    deflate, ListResponseMessage.NO_VERSION), plugin.isLegacyWireFormat());
+        } else {
+            // Each server gets its own request, naming the roster it can be compressed against
+            for (String server : gather.getPending()) {
+                sendWithServerName(server, new ListRequestMessage(null, player.getName(), gather.getId(), admin, null,
+                        0, 0, deflate, getDictionaryVersion(server)), plugin.isLegacyWireFormat());
+            }
+        }
+    }
+
+    /**
+     * Finds the online players whose names start with the given prefix, and
+     * sends them to the sender once every known server has responded or the
+     * gather timeout has passed. This server and the replicated servers are
+     * searched locally; the other servers are asked, and only send back their
+     * matching players. The console only searches locally.
+     *
+     * @param sender the sender searching for players
+     * @param prefix the name prefix, matched ignoring case
+     */
+    public void findPlayers(CommandSender sender, String prefix) {
+        List<RosterReplica> replicas = new ArrayList<RosterReplica>();
+        Set<String> expected = getExpectedServers(sender.hasPermission("nerdlist.admin"), replicas);
+        // Find messages are only sent in the binary format
+        boolean remote = sender instanceof Player && !plugin.isLegacyWireFormat();
+        if (!remote) {
+            expected.clear();
+        }
+        final ListGather gather = new ListGather(nextId(), remote ? ((Player) sender).getUniqueId() : null,
+                expected, ListGather.Type.FIND, prefix);
+
+        int limit = plugin.getFindLimit();
+        String localServer = plugin.getServerName() == null ? "this server" : plugin.getServerName();
+        Map<String, Collection<String>> local = plugin.findPlayers(prefix, limit);
+        gather.add(localServer, plugin.getFindMessageList(local, localServer), countPlayers(local));
+        for (RosterReplica replica : replicas) {
+            Map<String, Collection<String>> matches = replica.find(prefix, limit);
+            gather.add(replica.getServer(), plugin.getFindMessageList(matches, replica.getServer()),
+                    countPlayers(matches));
+        }
+        if (!remote) {
+            for (String message : plugin.toFindMessageList(gather)) {
+                sender.sendMessage(message);
+            }
+            return;
+        }
+
+        gathers.put(gather.getId(), gather);
+        boolean probe = directory.probe(plugin.getServerName(), plugin.getServerListInterval() * 50);
+        if (!probe && gather.getPending().isEmpty()) {
+            completeGather(gather);
+            return;
+        }
+        gather.setTimeout(plugin.getServer().getScheduler().runTaskLater(plugin, new Runnable() {
+            @Override
+            public void run() {
+                completeGather(gather);
+            }
+        }, plugin.getGatherTimeout()));
+
+        boolean admin = sender.hasPermission("nerdlist.admin");
+        metrics.requestSent();
+        if (probe) {
+            sendWithServerName("ALL", new FindRequestMessage(null, sender.getName(), gather.getId(), admin, prefix,
+                    limit), false);
+        } else {
+            for (String server : gather.getPending()) {
+                sendWithServerName(server, new FindRequestMessage(null, sender.getName(), gather.getId(), admin,
+                        prefix, limit), false);
+            }
+        }
+    }
+
+    /**
+     * Counts the players on the given server, or on every server, and sends
+     * the counts to the sender once every asked server has responded or the
+     * gather timeout has passed. Replicated servers and counts received
+     * within the count cache TTL are not asked again. The console never
+     * waits; servers without recent counts are asked in the background and
+     * reported as not responding.
+     *
+     * @param sender the sender asking for the counts
+     * @param server the server to count, or null for every server
+     */
+    public void gatherCounts(CommandSender sender, String server) {
+        boolean admin = sender.hasPermission("nerdlist.admin");
+        long ttl = plugin.getCountTTL();
+        List<ServerCounts> known = new ArrayList<ServerCounts>();
+        Set<String> expected = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+        if (server == null) {
+            known.add(plugin.getServerCounts());
+            List<RosterReplica> replicas = new ArrayList<RosterReplica>();
+            expected.addAll(getExpectedServers(admin, replicas));
+            for (RosterReplica replica : replicas) {
+                known.add(ServerCounts.of(replica.getServer(), replica.getVersion(), replica.getGroups()));
+            }
+        } else {
+            expected.add(server);
+        }
+        Iterator<String> it = expected.iterator();
+        while (it.hasNext()) {
+            ServerCounts cached = counts.get(it.next(), admin, ttl);
+            if (cached != null) {
+                known.add(cached);
+                it.remove();
+            }
+        }
+        // Count messages are only sent in the binary format
+        boolean wait = sender instanceof Player && !plugin.isLegacyWireFormat();
+        final ListGather gather = new ListGather(nextId(), wait ? ((Player) sender).getUniqueId() : null,
+                expected, ListGather.Type.COUNT, server);
+        for (ServerCounts count : known) {
+            gather.add(count.getServer(), Collections.singletonList(plugin.getCountMessage(count)),
+                    count.getTotal());
+        }
+        if (!wait) {
+            for (String message : plugin.toCountMessageList(gather)) {
+                sender.sendMessage(message);
+            }
+            if (!plugin.isLegacyWireFormat()) {
+                for (String pending : gather.getPending()) {
+                    sendWithServerName(pending, new CountRequestMessage(null, "", ListMessage.NO_ID, admin), false);
+                }
+            }
+            return;
+        }
+
+        gathers.put(gather.getId(), gather);
+        boolean probe = server == null
+                && directory.probe(plugin.getServerName(), plugin.getServerListInterval() * 50);
+        if (!probe && gather.getPending().isEmpty()) {
+            completeGather(gather);
+            return;
+        }
+        gather.setTimeout(plugin.getServer().getScheduler().runTaskLater(plugin, new Runnable() {
+            @Override
+            public void run() {
+                completeGather(gather);
+            }
+        }, plugin.getGatherTimeout()));
+
+        metrics.requestSent();
+        if (probe) {
+            sendWithServerName("ALL", new CountRequestMessage(null, sender.getName(), gather.getId(), admin), false);
+        } else {
+            for (String pending : gather.getPending()) {
+                sendWithServerName(pending, new CountRequestMessage(null, sender.getName(), gather.getId(), admin),
+                        false);
+            }
+        }
+    }
+
+    /**
+     * Gets the player counts of every server, as far as they are known
+     * without waiting: this server, the replicated servers, and the other
+     * servers that answered within the count cache TTL. Servers without
+     * recent counts are asked in the background, at most once per TTL, so
+     * that later calls include them.
+     *
+     * @return the counts, by server name
+     */
+    public Map<String, ServerCounts> getNetworkCounts() {
+        long ttl = plugin.getCountTTL();
+        Map<String, ServerCounts> network = new TreeMap<String, ServerCounts>(String.CASE_INSENSITIVE_ORDER);
+        ServerCounts local = plugin.getServerCounts();
+        network.put(local.getServer(), local);
+        List<RosterReplica> replicas = new ArrayList<RosterReplica>();
+        List<String> stale = new ArrayList<String>();
+        for (String server : getExpectedServers(false, replicas)) {
+            ServerCounts cached = counts.get(server, false, ttl);
+            if (cached != null) {
+                network.put(server, cached);
+            } else {
+                stale.add(server);
+            }
+        }
+        for (RosterReplica replica : replicas) {
+            network.put(replica.getServer(), ServerCounts.of(replica.getServer(), replica.getVersion(),
+                    replica.getGroups()));
+        }
+        long now = System.currentTimeMillis();
+        if (!stale.isEmpty() && !plugin.isLegacyWireFormat() && now - countsRefreshed >= ttl) {
+            countsRefreshed = now;
+            for (String server : stale) {
+                sendWithServerName(server, new CountRequestMessage(null, "", ListMessage.NO_ID, false), false);
+            }
+        }
+        return network;
+    }
+
+    /**
+     * Gets the other servers known to run NerdList that must be asked for
+     * their players, and collects the replicas that can be read instead.
+     *
+     * @param admin whether the request is made for an admin
+     * @param replicas the list to add the visible replicas to
+     * @return the servers to ask
+     */
+    private Set<String> getExpectedServers(boolean admin, List<RosterReplica> replicas) {
+        Set<String> expected = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+        expected.addAll(directory.getListServers());
+        if (plugin.getServerName() != null) {
+            expected.remove(plugin.getServerName());
+        }
+        RosterReplicator replicator = plugin.getReplicator();
+        if (replicator != null) {
+            for (RosterReplica replica : replicator.getReplicas()) {
+                if (replicator.isVisible(replica, admin)) {
+                    replicas.add(replica);
+                }
+                // Replicated servers are read locally, or not at all if hidden from the sender
+                expected.remove(replica.getServer());
+            }
+        }
+        return expected;
+    }
+
+    private long getDictionaryVersion(String server) {
+        RosterDictionary dictionary = dictionaries.get(server.toLowerCase());
+        return dictionary == null ? ListResponseMessage.NO_VERSION : dictionary.getVersion();
     }
 
     /**
@@ -87,13 +737,125 @@ public class ListHandler implements PluginMessageListener {
      *
      * @param server the server to which to send the list
      * @param player the player to which to send the list
+     * @param id the id of the request being answered
+     * @param json whether to send the list in the legacy JSON format
+     */
+    public void sendListResponse(String server, String player, int id, boolean json) {
+        sendListResponse(server, player, id, json, null, 0, 0);
+    }
+
+    /**
+     * Sends one page of this server's player list to the specified player on
+     * the given server. Only the players on that page are sent.
+     *
+     * @param server the server to which to send the list
+     * @param player the player to which to send the list
+     * @param id the id of the request being answered
+     * @param json whether to send the list in the legacy JSON format
+     * @param group the name of the only group to list, or null for all groups
+     * @param page the page number, starting from 1, or 0 for the whole list
+     * @param pageSize the number of players per page
+     */
+    public void sendListResponse(String server, String player, int id, boolean json, String group, int page,
+                                 int pageSize) {
+        sendWithServerName(server, createListResponse(player, id, group, page, pageSize), json);
+    }
+
+    /**
+     * Answers a request with this server's player list, compressed if the
+     * requesting server accepts that.
+     *
+     * @param request the request
+     * @param json whether to send the list in the legacy JSON format
+     */
+    public void sendListResponse(ListRequestMessage request, boolean json) {
+        ListResponseMessage response = createListResponse(request.getPlayer(), request.getId(), request.getGroup(),
+                request.getPage(), request.getPageSize());
+        response.setCompression(request.isDeflate() && !json, request.getDictionary());
+        sendWithServerName(request.getServer(), response, json);
+    }
+
+    @SuppressWarnings("unchecked")
+    private ListResponseMessage createListResponse(String player, int id, String group, int page, int pageSize) {
+        long version = plugin.getRosterVersion();
+        Map<String, Collection<String>> groups = responses.getGroups(version, plugin.getPlayerList());
+        ListSlice slice = ListSlice.of(groups, group, page, pageSize);
+        // Slices of the cached roster are keyed by group name as well
+        return new ListResponseMessage(null, player, id, version, (Map<String, Collection<String>>) slice.getGroups(),
+                slice.getGroup(), slice.getPage(), slice.getPages(), slice.getTotal());
+    }
+
+    /**
+     * Sends a sync message to the given server.
+     *
+     * @param server the server to which to send the message, or ALL
+     * @param message the message
+     */
+    public void sendSync(String server, RosterSyncMessage message) {
+        sendWithServerName(server, message, false);
+    }
+
+    /**
+     * Determines whether messages can be sent to other servers right now,
+     * rather than being queued or failing.
+     *
+     * @return whether messages can be sent
+     */
+    public boolean canSend() {
+        return plugin.getServerName() != null && transport.canSend();
+    }
+
+    private int nextId() {
+        if (++nextId == ListMessage.NO_ID) {
+            ++nextId;
+        }
+        return nextId;
+    }
+
+    private void completeGather(ListGather gather) {
+        if (gathers.remove(gather.getId()) == null) {
+            return;
+        }
+        gather.cancelTimeout();
+        Player player = plugin.getServer().getPlayer(gather.getPlayer());
+        if (player != null) {
+            List<String> messages;
+            switch (gather.getType()) {
+                case FIND:
+                    messages = plugin.toFindMessageList(gather);
+                    break;
+                case COUNT:
+                    messages = plugin.toCountMessageList(gather);
+                    break;
+                default:
+                    messages = plugin.toNetworkMessageList(gather);
+                    break;
+            }
+            for (String message : messages) {
+                player.sendMessage(message);
+            }
+        }
+    }
+
+    /**
+     * Requests the names of the servers on the network from BungeeCord.
      */
-    public void sendListResponse(String server, String player) {
-        JSONObject object = new JSONObject();
-        object.put("player", player);
-        object.put("groups", groupMapToList(plugin.getPlayerList()));
+    public void requestServerList() {
+        ByteArrayDataOutput out = ByteStreams.newDataOutput();
+        out.writeUTF("GetServers");
+        Player player = Iterables.getFirst(plugin.getServer().getOnlinePlayers(), null);
+        if (player != null) {
+            player.sendPluginMessage(plugin, "BungeeCord", out.toByteArray());
+        }
+    }
 
-        sendWithServerName(server, "NerdListResponse", object);
+    /**
+     * Gets the directory of servers on the network.
+     *
+     * @return the server directory
+     */
+    public ServerDirectory getDirectory() {
+        return directory;
     }
 
     /**
@@ -112,87 +874,144 @@ public class ListHandler implements PluginMessageListener {
      * Sends a message to forward to another server, with a "return address".
      *
      * @param server the server to which to send the message
-     * @param channel the channel over which to send the message
-     * @param content the message content
+     * @param message the message
+     * @param json whether to send the message in the legacy JSON format
      */
-    private void sendWithServerName(String server, String channel, JSONObject content) {
+    private void sendWithServerName(String server, ListMessage message, boolean json) {
         String localServer = plugin.getServerName();
-        if (localServer == null) {
-            ListRequest request = new ListRequest(server, channel, content);
-            requests.add(request);
-            requestServerName();
+        if (localServer == null || !transport.canSend()) {
+            requests.add(new ListRequest(server, message, json));
+            if (localServer == null) {
+                requestServerName();
+            }
         } else {
-            content.put("server", localServer);
-            sendBungeeMessage(server, channel, content.toJSONString());
+            message.setServer(localServer);
+            long start = System.nanoTime();
+            byte[] payload;
+            try {
+                payload = message instanceof ListResponseMessage
+                        ? responses.encode((ListResponseMessage) message, json, plugin.getCompressionThreshold())
+                        : codec.encode(message, json);
+            } catch (IllegalArgumentException e) {
+                plugin.getLogger().warning("Unable to send a " + message.getChannel()
+                        + (json ? " in the legacy JSON format: " : ": ") + e.getMessage());
+                return;
+            }
+            metrics.encoded(System.nanoTime() - start);
+            if (payload.length <= FragmentBuffer.MAX_PAYLOAD) {
+                queueBungeeMessage(server, message.getChannel(), payload, !json);
+            } else if (json || payload.length > FragmentBuffer.MAX_PAYLOAD * FragmentBuffer.MAX_FRAGMENTS) {
+                plugin.getLogger().warning("Unable to send a " + payload.length + " byte " + message.getChannel()
+                        + (json ? " in the legacy JSON format." : "."));
+            } else {
+                for (byte[] fragment : fragments.split(localServer, message.getChannel(), payload)) {
+                    queueBungeeMessage(server, FRAGMENT_CHANNEL, fragment, true);
+                }
+            }
         }
     }
 
     /**
-     * Sends an arbitrary message to forward to another server.
+     * Queues a message to be sent at the end of the tick, together with any
+     * other messages to the same server.
      *
      * @param server the server to which to send the message
      * @param channel the channel over which to send the message
-     * @param message the message text
+     * @param bytes the message payload
+     * @param batchable whether the receiving server understands batches
      */
-    private void sendBungeeMessage(String server, String channel, String message) {
-        ByteArrayDataOutput out = ByteStreams.newDataOutput();
-        out.writeUTF("Forward");
-        out.writeUTF(server);
-        out.writeUTF(channel);
-
-        ByteArrayDataOutput msgOut = ByteStreams.newDataOutput();
-        msgOut.writeUTF(message);
-
-        byte[] bytes = msgOut.toByteArray();
-        out.writeShort(bytes.length);
-        out.write(bytes);
+    private void queueBungeeMessage(String server, String channel, byte[] bytes, boolean batchable) {
+        outbound.add(server, channel, bytes, batchable);
+        if (!drainScheduled) {
+            drainScheduled = true;
+            plugin.getServer().getScheduler().runTask(plugin, new Runnable() {
+                @Override
+                public void run() {
+                    drainScheduled = false;
+                    flushOutbound();
+                }
+            });
+        }
+    }
 
-        Player player = Iterables.getFirst(plugin.getServer().getOnlinePlayers(), null);
-        if (player == null) {
-            throw new RuntimeException("There must be at least one player online to send a message.");
+    /**
+     * Sends every queued message now, rather than at the end of the tick.
+     */
+    public void flushOutbound() {
+        if (outbound.isEmpty()) {
+            return;
+        }
+        if (!transport.canSend()) {
+            // The last carrier left during the tick; the messages wait for the next one
+            for (OutboundQueue.Frame frame : outbound.drain()) {
+                requests.add(new ListRequest(frame.getServer(), frame.getChannel(), frame.getPayload()));
+            }
+            return;
+        }
+        List<OutboundQueue.Frame> frames = outbound.drain();
+        metrics.outboundDrained(frames.size());
+        for (OutboundQueue.Frame frame : frames) {
+            if (transport.send(frame.getServer(), frame.getChannel(), frame.getPayload())) {
+                metrics.messageSent(frame.getPayload().length);
+            }
         }
-        player.sendPluginMessage(plugin, "BungeeCord", out.toByteArray());
     }
 
-    private JSONObject readJSON(ByteArrayDataInput in) {
-        short len = in.readShort();
+    private byte[] readPayload(ByteArrayDataInput in) {
+        int len = in.readUnsignedShort();
         byte[] message = new byte[len];
         in.readFully(message);
-        ByteArrayDataInput content = ByteStreams.newDataInput(message);
-        String str = content.readUTF();
-        try {
-            return (JSONObject) parser.parse(str);
-        } catch (ParseException e) {
-            throw new RuntimeException(e);
-        }
+        return message;
     }
 
-    private Map<String, Collection<String>> groupListToMap(List<Map<String, Object>> groups) {
-        Map<String, Collection<String>> groupMap = new LinkedHashMap<String, Collection<String>>();
-        for (Map<String, Object> group : groups) {
-            groupMap.put((String) group.get("name"), (Collection<String>) group.get("players"));
+    private int countPlayers(Map<?, Collection<String>> groups) {
+        int count = 0;
+        for (Collection<String> players : groups.values()) {
+            count += players.size();
         }
-        return groupMap;
+        return count;
     }
 
-    private JSONArray groupMapToList(Map<?, Collection<String>> groups) {
-        JSONArray groupList = new JSONArray();
-        for (Map.Entry<?, Collection<String>> group : groups.entrySet()) {
-            if (!group.getValue().isEmpty()) {
-                JSONObject object = new JSONObject();
-                object.put("name", group.getKey().toString());
-                object.put("players", new ArrayList<String>(group.getValue()));
-                groupList.add(object);
+    /**
+     * Sends the requests that were waiting for the server name or for a
+     * player to carry them, discarding any that have expired.
+     */
+    public void retryPending() {
+        if (requests.size() == 0) {
+            return;
+        }
+        if (plugin.getServerName() == null) {
+            requestServerName();
+            return;
+        }
+        for (ListRequest request : requests.drain()) {
+            if (request.getMessage() != null) {
+                sendWithServerName(request.getServer(), request.getMessage(), request.isJSON());
+            } else if (transport.canSend()) {
+                // Already packed, so it is sent as it is
+                queueBungeeMessage(request.getServer(), request.getChannel(), request.getPayload(), false);
+            } else {
+                requests.add(request);
             }
         }
-        return groupList;
     }
 
-    private void flushQueue() {
-        while (!requests.isEmpty()) {
-            ListRequest request = requests.poll();
-            sendWithServerName(request.getServer(), request.getChannel(), request.getContent());
-        }
+    /**
+     * Gets the cache of this server's encoded roster.
+     *
+     * @return the response cache
+     */
+    public ResponseCache getResponseCache() {
+        return responses;
+    }
+
+    /**
+     * Gets the queue of requests waiting to be sent.
+     *
+     * @return the pending queue
+     */
+    public PendingQueue getPendingQueue() {
+        return requests;
     }
 
 }
@@ -0,0 +1,73 @@
+package nu.nerd.nerdlist;
+
+/**
+ * A message sent between servers.
+ */
+public abstract class ListMessage {
+
+    /**
+     * The id of messages that are not part of a gathered request.
+     */
+    public static final int NO_ID = 0;
+
+    private String server;
+    private final String player;
+    private final int id;
+
+    /**
+     * Creates a message concerning the given player.
+     *
+     * @param server the server the message is from, or null if not yet known
+     * @param player the player
+     * @param id the id correlating requests and responses, or {@link #NO_ID}
+     */
+    protected ListMessage(String server, String player, int id) {
+        this.server = server;
+        this.player = player;
+        this.id = id;
+    }
+
+    /**
+     * Gets the server this message is from.
+     *
+     * @return the server
+     */
+    public String getServer() {
+        return server;
+    }
+
+    /**
+     * Sets the server this message is from.
+     *
+     * @param server the server
+     */
+    public void setServer(String server) {
+        this.server = server;
+    }
+
+    /**
+     * Gets the player this message concerns.
+     *
+     * @return the player
+     */
+    public String getPlayer() {
+        return player;
+    }
+
+    /**
+     * Gets the id correlating a request with its responses.
+     *
+     * @return the id, or {@link #NO_ID}
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Gets the subchannel over which this message is sent.
+     *
+     * @return the subchannel
+     */
+    public abstract String getChannel();
+
+}
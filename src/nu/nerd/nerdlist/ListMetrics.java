@@ -0,0 +1,234 @@
+package nu.nerd.nerdlist;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and histograms describing NerdList's work. Recording is lock-free,
+ * so metrics may be recorded from any thread.
+ */
+public class ListMetrics {
+
+    private static final long[] LATENCY_BOUNDS = {
+            100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 500000, 1000000, 2500000
+    };
+    private static final long[] SIZE_BOUNDS = {64, 256, 1024, 4096, 16384, 32768, 65536, 262144};
+    private static final long[] DEPTH_BOUNDS = {1, 2, 4, 8, 16, 32, 64, 128};
+
+    private final AtomicLong requestsSent = new AtomicLong();
+    private final AtomicLong requestsShared = new AtomicLong();
+    private final AtomicLong requestsAnswered = new AtomicLong();
+    private final AtomicLong responsesReceived = new AtomicLong();
+    private final AtomicLong messagesSent = new AtomicLong();
+    private final AtomicLong messagesReceived = new AtomicLong();
+    private final AtomicLong messagesDiscarded = new AtomicLong();
+    private final Histogram roundTrip = new Histogram(LATENCY_BOUNDS);
+    private final Histogram renderTime = new Histogram(LATENCY_BOUNDS);
+    private final Histogram encodeTime = new Histogram(LATENCY_BOUNDS);
+    private final Histogram decodeTime = new Histogram(LATENCY_BOUNDS);
+    private final Histogram bytesSent = new Histogram(SIZE_BOUNDS);
+    private final Histogram bytesReceived = new Histogram(SIZE_BOUNDS);
+    private final Histogram outboundDepth = new Histogram(DEPTH_BOUNDS);
+
+    /**
+     * Counts a list request sent to another server.
+     */
+    public void requestSent() {
+        requestsSent.incrementAndGet();
+    }
+
+    /**
+     * Counts a list request that waited on an identical request in flight.
+     */
+    public void requestShared() {
+        requestsShared.incrementAndGet();
+    }
+
+    /**
+     * Counts a list request from another server that this server answered.
+     */
+    public void requestAnswered() {
+        requestsAnswered.incrementAndGet();
+    }
+
+    /**
+     * Records a response to one of this server's requests.
+     *
+     * @param nanos the time since the request was sent, in nanoseconds
+     */
+    public void responseReceived(long nanos) {
+        responsesReceived.incrementAndGet();
+        roundTrip.record(nanos / 1000);
+    }
+
+    /**
+     * Records the time taken to render a player list.
+     *
+     * @param nanos the time, in nanoseconds
+     */
+    public void rendered(long nanos) {
+        renderTime.record(nanos / 1000);
+    }
+
+    /**
+     * Records the time taken to encode a message.
+     *
+     * @param nanos the time, in nanoseconds
+     */
+    public void encoded(long nanos) {
+        encodeTime.record(nanos / 1000);
+    }
+
+    /**
+     * Records the time taken to decode a message.
+     *
+     * @param nanos the time, in nanoseconds
+     */
+    public void decoded(long nanos) {
+        decodeTime.record(nanos / 1000);
+    }
+
+    /**
+     * Records a plugin message sent to another server.
+     *
+     * @param bytes the payload size
+     */
+    public void messageSent(int bytes) {
+        messagesSent.incrementAndGet();
+        bytesSent.record(bytes);
+    }
+
+    /**
+     * Records a plugin message received from another server.
+     *
+     * @param bytes the payload size
+     */
+    public void messageReceived(int bytes) {
+        messagesReceived.incrementAndGet();
+        bytesReceived.record(bytes);
+    }
+
+    /**
+     * Counts a received message that was malformed.
+     */
+    public void messageDiscarded() {
+        messagesDiscarded.incrementAndGet();
+    }
+
+    /**
+     * Records the number of messages sent when the outbound queue was drained.
+     *
+     * @param frames the number of messages
+     */
+    public void outboundDrained(int frames) {
+        outboundDepth.record(frames);
+    }
+
+    /**
+     * Formats the metrics for display in chat.
+     *
+     * @return the lines to display
+     */
+    public List<String> toMessageList() {
+        List<String> lines = new ArrayList<String>();
+        lines.add("§6Requests:§f " + requestsSent.get() + " sent, " + requestsShared.get() + " shared, "
+                + requestsAnswered.get() + " answered, " + responsesReceived.get() + " responses");
+        lines.add("§6Messages:§f " + messagesSent.get() + " sent, " + messagesReceived.get() + " received, "
+                + messagesDiscarded.get() + " discarded");
+        lines.add(formatLatency("Round trip", roundTrip));
+        lines.add(formatLatency("Render", renderTime));
+        lines.add(formatLatency("Encode", encodeTime));
+        lines.add(formatLatency("Decode", decodeTime));
+        lines.add(formatSize("Sent", bytesSent));
+        lines.add(formatSize("Received", bytesReceived));
+        return lines;
+    }
+
+    /**
+     * Formats the metrics in the Prometheus text format, for monitoring.
+     *
+     * @return the formatted metrics
+     */
+    public String toExposition() {
+        StringBuilder out = new StringBuilder();
+        appendCounter(out, "nerdlist_requests_sent_total", requestsSent.get());
+        appendCounter(out, "nerdlist_requests_shared_total", requestsShared.get());
+        appendCounter(out, "nerdlist_requests_answered_total", requestsAnswered.get());
+        appendCounter(out, "nerdlist_responses_received_total", responsesReceived.get());
+        appendCounter(out, "nerdlist_messages_sent_total", messagesSent.get());
+        appendCounter(out, "nerdlist_messages_received_total", messagesReceived.get());
+        appendCounter(out, "nerdlist_messages_discarded_total", messagesDiscarded.get());
+        appendHistogram(out, "nerdlist_round_trip_microseconds", roundTrip);
+        appendHistogram(out, "nerdlist_render_microseconds", renderTime);
+        appendHistogram(out, "nerdlist_encode_microseconds", encodeTime);
+        appendHistogram(out, "nerdlist_decode_microseconds", decodeTime);
+        appendHistogram(out, "nerdlist_sent_bytes", bytesSent);
+        appendHistogram(out, "nerdlist_received_bytes", bytesReceived);
+        appendHistogram(out, "nerdlist_outbound_frames", outboundDepth);
+        return out.toString();
+    }
+
+    /**
+     * Appends a gauge in the Prometheus text format.
+     *
+     * @param out the output
+     * @param name the metric name
+     * @param value the value
+     */
+    public static void appendGauge(StringBuilder out, String name, long value) {
+        out.append("# TYPE ").append(name).append(" gauge\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Appends a counter in the Prometheus text format.
+     *
+     * @param out the output
+     * @param name the metric name
+     * @param value the value
+     */
+    public static void appendCounter(StringBuilder out, String name, long value) {
+        out.append("# TYPE ").append(name).append(" counter\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void appendHistogram(StringBuilder out, String name, Histogram histogram) {
+        out.append("# TYPE ").append(name).append(" histogram\n");
+        long[] bounds = histogram.getBounds();
+        long cumulative = 0;
+        for (int bucket = 0; bucket < bounds.length; bucket++) {
+            cumulative += histogram.getBucket(bucket);
+            out.append(name).append("_bucket{le=\"").append(bounds[bucket]).append("\"} ").append(cumulative)
+                    .append('\n');
+        }
+        cumulative += histogram.getBucket(bounds.length);
+        out.append(name).append("_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+        out.append(name).append("_sum ").append(histogram.getSum()).append('\n');
+        out.append(name).append("_count ").append(histogram.getCount()).append('\n');
+    }
+
+    private static String formatLatency(String label, Histogram histogram) {
+        long count = histogram.getCount();
+        if (count == 0) {
+            return "§6" + label + ":§f no samples";
+        }
+        return String.format("§6%s:§f %d samples, avg %.2f ms, p50 %s, p99 %s", label, count,
+                histogram.getSum() / 1000.0 / count, formatMillis(histogram.getPercentile(50)),
+                formatMillis(histogram.getPercentile(99)));
+    }
+
+    private static String formatMillis(long micros) {
+        return micros < 0 ? "slow" : "≤" + (micros / 1000.0) + " ms";
+    }
+
+    private static String formatSize(String label, Histogram histogram) {
+        long count = histogram.getCount();
+        if (count == 0) {
+            return "§6" + label + ":§f no messages";
+        }
+        return String.format("§6%s:§f %d bytes in %d messages, avg %d bytes", label, histogram.getSum(), count,
+                histogram.getSum() / count);
+    }
+
+}
@@ -1,27 +1,48 @@
 package nu.nerd.nerdlist;
 
-import org.json.simple.JSONObject;
-
 /**
  * A stored request to be handled by BungeeCord.
  */
 public class ListRequest {
 
     private final String server;
+    private final ListMessage message;
+    private final boolean json;
     private final String channel;
-    private final JSONObject content;
+    private final byte[] payload;
+    private final long created;
+
+    /**
+     * Creates a new ListRequest from the given server, message, and format.
+     *
+     * @param server the server
+     * @param message the message
+     * @param json whether to send the message in the legacy JSON format
+     */
+    public ListRequest(String server, ListMessage message, boolean json) {
+        this.server = server;
+        this.message = message;
+        this.json = json;
+        channel = null;
+        payload = null;
+        created = System.currentTimeMillis();
+    }
 
     /**
-     * Creates a new ListRequest from the given server, channel, and content.
+     * Creates a new ListRequest from a message that was already encoded but
+     * could not be sent.
      *
      * @param server the server
-     * @param channel the channel
-     * @param content the content
+     * @param channel the subchannel over which to send the payload
+     * @param payload the encoded payload
      */
-    public ListRequest(String server, String channel, JSONObject content) {
+    public ListRequest(String server, String channel, byte[] payload) {
         this.server = server;
         this.channel = channel;
-        this.content = content;
+        this.payload = payload;
+        message = null;
+        json = false;
+        created = System.currentTimeMillis();
     }
 
     /**
@@ -34,21 +55,48 @@ public class ListRequest {
     }
 
     /**
-     * Gets the channel over which this request should be sent.
+     * Gets the message to send.
      *
-     * @return the channel
+     * @return the message, or null if it was already encoded
+     */
+    public ListMessage getMessage() {
+        return message;
+    }
+
+    /**
+     * Determines whether the message should be sent in the legacy JSON format.
+     *
+     * @return whether to use JSON
+     */
+    public boolean isJSON() {
+        return json;
+    }
+
+    /**
+     * Gets the subchannel of an already encoded message.
+     *
+     * @return the subchannel, or null if the message is not encoded
      */
     public String getChannel() {
         return channel;
     }
 
     /**
-     * Gets the content of this request.
+     * Gets the payload of an already encoded message.
+     *
+     * @return the payload, or null if the message is not encoded
+     */
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /**
+     * Gets when this request was created.
      *
-     * @return the content
+     * @return the time, in milliseconds
      */
-    public JSONObject getContent() {
-        return content;
+    public long getCreated() {
+        return created;
     }
 
 }
@@ -0,0 +1,134 @@
+package nu.nerd.nerdlist;
+
+/**
+ * A request for another server's player list.
+ */
+public class ListRequestMessage extends ListMessage {
+
+    /**
+     * The subchannel over which requests are sent.
+     */
+    public static final String CHANNEL = "NerdListRequest";
+
+    private final boolean admin;
+    private final String group;
+    private final int page;
+    private final int pageSize;
+    private final boolean deflate;
+    private final long dictionary;
+
+    /**
+     * Creates a new request for a whole player list.
+     *
+     * @param server the requesting server, or null if not yet known
+     * @param player the requesting player
+     * @param id the id to send back with the response, or {@link #NO_ID}
+     * @param admin whether the requesting player is an admin
+     */
+    public ListRequestMessage(String server, String player, int id, boolean admin) {
+        this(server, player, id, admin, null, 0, 0, false, ListResponseMessage.NO_VERSION);
+    }
+
+    /**
+     * Creates a new request for one page of a player list.
+     *
+     * @param server the requesting server, or null if not yet known
+     * @param player the requesting player
+     * @param id the id to send back with the response, or {@link #NO_ID}
+     * @param admin whether the requesting player is an admin
+     * @param group the name of the only group to list, or null for all groups
+     * @param page the page number, starting from 1, or 0 for the whole list
+     * @param pageSize the number of players per page
+     */
+    public ListRequestMessage(String server, String player, int id, boolean admin, String group, int page,
+                              int pageSize) {
+        this(server, player, id, admin, group, page, pageSize, false, ListResponseMessage.NO_VERSION);
+    }
+
+    /**
+     * Creates a new request for one page of a player list, which the
+     * response may be compressed for.
+     *
+     * @param server the requesting server, or null if not yet known
+     * @param player the requesting player
+     * @param id the id to send back with the response, or {@link #NO_ID}
+     * @param admin whether the requesting player is an admin
+     * @param group the name of the only group to list, or null for all groups
+     * @param page the page number, starting from 1, or 0 for the whole list
+     * @param pageSize the number of players per page
+     * @param deflate whether the requesting server accepts compressed responses
+     * @param dictionary the version of the responding server's roster that the requesting server holds, or
+     *                   {@link ListResponseMessage#NO_VERSION}
+     */
+    public ListRequestMessage(String server, String player, int id, boolean admin, String group, int page,
+                              int pageSize, boolean deflate, long dictionary) {
+        super(server, player, id);
+        this.admin = admin;
+        this.group = group;
+        this.page = page;
+        this.pageSize = pageSize;
+        this.deflate = deflate;
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Determines whether the requesting player is an admin.
+     *
+     * @return whether the player is an admin
+     */
+    public boolean isAdmin() {
+        return admin;
+    }
+
+    /**
+     * Gets the name of the only group to list.
+     *
+     * @return the group name, or null for all groups
+     */
+    public String getGroup() {
+        return group;
+    }
+
+    /**
+     * Gets the requested page number.
+     *
+     * @return the page number, or 0 for the whole list
+     */
+    public int getPage() {
+        return page;
+    }
+
+    /**
+     * Gets the number of players per page.
+     *
+     * @return the page size
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Determines whether the requesting server accepts compressed responses.
+     *
+     * @return whether responses may be compressed
+     */
+    public boolean isDeflate() {
+        return deflate;
+    }
+
+    /**
+     * Gets the version of the responding server's roster that the requesting
+     * server holds as a dictionary for decompression.
+     *
+     * @return the roster version, or {@link ListResponseMessage#NO_VERSION}
+     */
+    public long getDictionary() {
+        return dictionary;
+    }
+
+    @Override
+    public String getChannel() {
+        return CHANNEL;
+    }
+
+}
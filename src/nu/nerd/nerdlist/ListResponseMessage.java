@@ -0,0 +1,189 @@
+package nu.nerd.nerdlist;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A server's player list, sent in response to a {@link ListRequestMessage}.
+ */
+public class ListResponseMessage extends ListMessage {
+
+    /**
+     * The subchannel over which responses are sent.
+     */
+    public static final String CHANNEL = "NerdListResponse";
+
+    /**
+     * The version sent by servers that do not report their roster version.
+     */
+    public static final long NO_VERSION = -1;
+
+    private final long version;
+    private final Map<String, Collection<String>> groups;
+    private final String group;
+    private final int page;
+    private final int pages;
+    private final int total;
+    private boolean deflate;
+    private long dictionary;
+
+    /**
+     * Creates a new response with a whole player list.
+     *
+     * @param server the responding server, or null if not yet known
+     * @param player the player the list is for
+     * @param id the id of the request being answered, or {@link #NO_ID}
+     * @param version the responding server's roster version, or {@link #NO_VERSION}
+     * @param groups the listed players, separated by groups in display order
+     */
+    public ListResponseMessage(String server, String player, int id, long version,
+                               Map<String, Collection<String>> groups) {
+        this(server, player, id, version, groups, null, 0, 1, countPlayers(groups));
+    }
+
+    /**
+     * Creates a new response with one page of a player list.
+     *
+     * @param server the responding server, or null if not yet known
+     * @param player the player the list is for
+     * @param id the id of the request being answered, or {@link #NO_ID}
+     * @param version the responding server's roster version, or {@link #NO_VERSION}
+     * @param groups the players on the page, separated by groups in display order
+     * @param group the name of the only group listed, or null for all groups
+     * @param page the page number, or 0 for the whole list
+     * @param pages the number of pages
+     * @param total the number of players on all pages
+     */
+    public ListResponseMessage(String server, String player, int id, long version,
+                               Map<String, Collection<String>> groups, String group, int page, int pages,
+                               int total) {
+        super(server, player, id);
+        this.version = version;
+        this.groups = groups;
+        this.group = group;
+        this.page = page;
+        this.pages = pages;
+        this.total = total;
+        dictionary = NO_VERSION;
+    }
+
+    private static int countPlayers(Map<String, Collection<String>> groups) {
+        int count = 0;
+        for (Collection<String> players : groups.values()) {
+            count += players.size();
+        }
+        return count;
+    }
+
+    /**
+     * Gets the responding server's roster version.
+     *
+     * @return the version, or {@link #NO_VERSION}
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the listed players, separated by groups in display order.
+     *
+     * @return the listed players, or null if they could not be read
+     */
+    public Map<String, Collection<String>> getGroups() {
+        return groups;
+    }
+
+    /**
+     * Determines whether the listed players could be read. They cannot when
+     * the response was compressed against a roster the receiving server no
+     * longer holds.
+     *
+     * @return whether the listed players are present
+     */
+    public boolean hasGroups() {
+        return groups != null;
+    }
+
+    /**
+     * Gets the name of the only group listed.
+     *
+     * @return the group name, or null for all groups
+     */
+    public String getGroup() {
+        return group;
+    }
+
+    /**
+     * Gets the page number.
+     *
+     * @return the page number, or 0 for the whole list
+     */
+    public int getPage() {
+        return page;
+    }
+
+    /**
+     * Gets the number of pages.
+     *
+     * @return the number of pages
+     */
+    public int getPages() {
+        return pages;
+    }
+
+    /**
+     * Gets the number of players on all pages.
+     *
+     * @return the total
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * Sets how the receiving server accepts this response to be compressed.
+     * This is taken from the request and is not itself sent.
+     *
+     * @param deflate whether the response may be compressed
+     * @param dictionary the version of this server's roster that the receiving server holds, or
+     *                   {@link #NO_VERSION}
+     */
+    public void setCompression(boolean deflate, long dictionary) {
+        this.deflate = deflate;
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Determines whether the response may be compressed.
+     *
+     * @return whether the response may be compressed
+     */
+    public boolean isDeflate() {
+        return deflate;
+    }
+
+    /**
+     * Gets the version of this server's roster that the receiving server
+     * holds as a dictionary for decompression.
+     *
+     * @return the roster version, or {@link #NO_VERSION}
+     */
+    public long getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Gets the listed page as a slice.
+     *
+     * @return the slice
+     */
+    public ListSlice toSlice() {
+        return new ListSlice(groups, group, page, pages, total);
+    }
+
+    @Override
+    public String getChannel() {
+        return CHANNEL;
+    }
+
+}
@@ -0,0 +1,153 @@
+package nu.nerd.nerdlist;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One page of a player list, optionally limited to a single group.
+ */
+public class ListSlice {
+
+    private final Map<?, Collection<String>> groups;
+    private final String group;
+    private final int page;
+    private final int pages;
+    private final int total;
+
+    /**
+     * Creates a slice.
+     *
+     * @param groups the players on this page, separated by groups in display order
+     * @param group the name of the only group included, or null for all groups
+     * @param page the page number, or 0 for the whole list
+     * @param pages the number of pages
+     * @param total the number of players on all pages
+     */
+    public ListSlice(Map<?, Collection<String>> groups, String group, int page, int pages, int total) {
+        this.groups = groups;
+        this.group = group;
+        this.page = page;
+        this.pages = pages;
+        this.total = total;
+    }
+
+    /**
+     * Slices a page out of a player list. Only the players on the requested
+     * page are copied; earlier groups are skipped without being iterated.
+     *
+     * @param list the player list, with each group's players sorted
+     * @param group the name of the only group to include, or null for all groups
+     * @param page the page number, starting from 1, or 0 for the whole list
+     * @param pageSize the number of players per page, or 0 to disable paging
+     * @return the slice
+     */
+    public static ListSlice of(Map<?, Collection<String>> list, String group, int page, int pageSize) {
+        int total = 0;
+        for (Map.Entry<?, Collection<String>> entry : list.entrySet()) {
+            if (group == null || group.equalsIgnoreCase(entry.getKey().toString())) {
+                total += entry.getValue().size();
+            }
+        }
+        if (pageSize <= 0) {
+            page = 0;
+        }
+        if (group == null && (page == 0 || total <= pageSize)) {
+            // The whole list fits, so there is nothing to copy
+            return new ListSlice(list, null, page == 0 ? 0 : 1, 1, total);
+        }
+
+        int pages = page == 0 ? 1 : Math.max(1, (total + pageSize - 1) / pageSize);
+        page = page == 0 ? 0 : Math.min(Math.max(page, 1), pages);
+        int from = page == 0 ? 0 : (page - 1) * pageSize;
+        int to = page == 0 ? Integer.MAX_VALUE : from + pageSize;
+
+        Map<String, Collection<String>> groups = new LinkedHashMap<String, Collection<String>>();
+        int index = 0;
+        for (Map.Entry<?, Collection<String>> entry : list.entrySet()) {
+            if (index >= to) {
+                break;
+            }
+            String name = entry.getKey().toString();
+            if (group != null && !group.equalsIgnoreCase(name)) {
+                continue;
+            }
+            Collection<String> players = entry.getValue();
+            if (index + players.size() <= from) {
+                index += players.size();
+                continue;
+            }
+            List<String> sliced = new ArrayList<String>(Math.min(players.size(), to - Math.max(index, from)));
+            Iterator<String> it = players.iterator();
+            while (it.hasNext() && index < to) {
+                String player = it.next();
+                if (index >= from) {
+                    sliced.add(player);
+                }
+                index++;
+            }
+            if (!sliced.isEmpty()) {
+                groups.put(name, sliced);
+            }
+        }
+        return new ListSlice(groups, group, page, pages, total);
+    }
+
+    /**
+     * Gets the players on this page, separated by groups in display order.
+     *
+     * @return the players
+     */
+    public Map<?, Collection<String>> getGroups() {
+        return groups;
+    }
+
+    /**
+     * Gets the name of the only group included.
+     *
+     * @return the group name, or null for all groups
+     */
+    public String getGroup() {
+        return group;
+    }
+
+    /**
+     * Determines whether this slice holds the whole player list.
+     *
+     * @return whether this slice is the whole list
+     */
+    public boolean isWhole() {
+        return group == null && pages == 1;
+    }
+
+    /**
+     * Gets the page number.
+     *
+     * @return the page number, or 0 for the whole list
+     */
+    public int getPage() {
+        return page;
+    }
+
+    /**
+     * Gets the number of pages.
+     *
+     * @return the number of pages
+     */
+    public int getPages() {
+        return pages;
+    }
+
+    /**
+     * Gets the number of players on all pages.
+     *
+     * @return the total
+     */
+    public int getTotal() {
+        return total;
+    }
+
+}
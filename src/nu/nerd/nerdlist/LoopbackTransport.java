@@ -0,0 +1,35 @@
+package nu.nerd.nerdlist;
+
+/**
+ * Delivers every message back to this server, whatever server it was sent
+ * to. This lets a single server answer its own requests for testing.
+ */
+public class LoopbackTransport implements Transport {
+
+    private final Receiver receiver;
+
+    /**
+     * Creates a new loopback transport.
+     *
+     * @param receiver the receiver of every sent message
+     */
+    public LoopbackTransport(Receiver receiver) {
+        this.receiver = receiver;
+    }
+
+    @Override
+    public boolean send(String server, String channel, byte[] payload) {
+        receiver.receive(channel, payload.clone());
+        return true;
+    }
+
+    @Override
+    public boolean canSend() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+    }
+
+}
@@ -0,0 +1,232 @@
+package nu.nerd.nerdlist;
+
+import org.bukkit.entity.Player;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * An index of the online players listed under each group, kept up to date as
+ * players join, quit, and change groups.
+ */
+public class MemberIndex {
+
+    private final Map<UUID, Member> members;
+    private final Map<ListGroup, NavigableSet<String>> groups;
+    private final NameIndex names;
+    private Map<ListGroup, Collection<String>> view;
+    private long version;
+    private Listener listener;
+
+    /**
+     * Creates an empty index.
+     */
+    public MemberIndex() {
+        members = new HashMap<UUID, Member>();
+        groups = new LinkedHashMap<ListGroup, NavigableSet<String>>();
+        names = new NameIndex();
+        view = Collections.emptyMap();
+        // Start from the clock so versions keep increasing across restarts
+        version = System.currentTimeMillis();
+    }
+
+    /**
+     * Removes all players from the index and replaces the groups with the
+     * given groups, in display order.
+     *
+     * @param displayGroups the groups, in display order
+     */
+    public void reset(List<ListGroup> displayGroups) {
+        members.clear();
+        groups.clear();
+        names.clear();
+        Map<ListGroup, Collection<String>> view = new LinkedHashMap<ListGroup, Collection<String>>();
+        for (ListGroup group : displayGroups) {
+            NavigableSet<String> players = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+            groups.put(group, players);
+            view.put(group, Collections.unmodifiableSet(players));
+        }
+        this.view = Collections.unmodifiableMap(view);
+        version++;
+        if (listener != null) {
+            listener.onReset();
+        }
+    }
+
+    /**
+     * Lists the player under the given group, replacing any previous entry.
+     * A null group removes the player from the list.
+     *
+     * @param player the player
+     * @param group the player's group, or null
+     */
+    public void put(Player player, ListGroup group) {
+        put(player, group, false);
+    }
+
+    /**
+     * Records the player's group and whether they are hidden, replacing any
+     * previous entry. Hidden players are remembered but not listed, and a
+     * null group removes the player from the list.
+     *
+     * @param player the player
+     * @param group the player's group, or null
+     * @param hidden whether the player is hidden from the list
+     */
+    public void put(Player player, ListGroup group, boolean hidden) {
+        if (group != null && !groups.containsKey(group)) {
+            group = null;
+        }
+        Member member = members.get(player.getUniqueId());
+        if (member != null && member.hidden == hidden && Objects.equals(member.group, group)
+                && member.name.equals(player.getName())) {
+            return;
+        }
+        remove(player);
+        if (group != null || hidden) {
+            members.put(player.getUniqueId(), new Member(player.getName(), group, hidden));
+        }
+        if (group != null && !hidden) {
+            groups.get(group).add(player.getName());
+            names.put(player.getName(), group.getName());
+            version++;
+            if (listener != null) {
+                listener.onListed(player.getName(), group);
+            }
+        }
+    }
+
+    /**
+     * Removes the player from the index.
+     *
+     * @param player the player
+     */
+    public void remove(Player player) {
+        Member member = members.remove(player.getUniqueId());
+        if (member != null && member.isListed()) {
+            groups.get(member.group).remove(member.name);
+            names.remove(member.name);
+            version++;
+            if (listener != null) {
+                listener.onUnlisted(member.name);
+            }
+        }
+    }
+
+    /**
+     * Gets the group the player is currently listed under.
+     *
+     * @param player the player
+     * @return the group, or null if the player is not listed
+     */
+    public ListGroup getGroup(Player player) {
+        Member member = members.get(player.getUniqueId());
+        return member == null || !member.isListed() ? null : member.group;
+    }
+
+    /**
+     * Determines whether the player was recorded as hidden from the list.
+     *
+     * @param player the player
+     * @return whether the player is hidden
+     */
+    public boolean isHidden(Player player) {
+        Member member = members.get(player.getUniqueId());
+        return member != null && member.hidden;
+    }
+
+    /**
+     * Gets the roster version, which changes whenever a player is added to,
+     * removed from, or moved between groups.
+     *
+     * @return the roster version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets a read-only view of the listed players, separated by groups in
+     * display order. Each group's players are sorted by name.
+     *
+     * @return the listed players
+     */
+    public Map<ListGroup, Collection<String>> getGroups() {
+        return view;
+    }
+
+    /**
+     * Finds the listed players whose names start with the given prefix,
+     * ignoring case.
+     *
+     * @param prefix the prefix
+     * @param limit the most players to return
+     * @return the matching players, sorted by name and separated by group name
+     */
+    public Map<String, Collection<String>> find(String prefix, int limit) {
+        return names.find(prefix, limit);
+    }
+
+    /**
+     * Sets the listener notified of changes to the index.
+     *
+     * @param listener the listener, or null
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Receives changes to a {@link MemberIndex}.
+     */
+    public interface Listener {
+
+        /**
+         * Called after a player is listed under a group.
+         *
+         * @param player the player's name
+         * @param group the group
+         */
+        void onListed(String player, ListGroup group);
+
+        /**
+         * Called after a player is removed from the list.
+         *
+         * @param player the player's name
+         */
+        void onUnlisted(String player);
+
+        /**
+         * Called after the index is reset.
+         */
+        void onReset();
+
+    }
+
+    private static class Member {
+
+        private final String name;
+        private final ListGroup group;
+        private final boolean hidden;
+
+        private Member(String name, ListGroup group, boolean hidden) {
+            this.name = name;
+            this.group = group;
+            this.hidden = hidden;
+        }
+
+        private boolean isListed() {
+            return group != null && !hidden;
+        }
+
+    }
+
+}
@@ -0,0 +1,134 @@
+package nu.nerd.nerdlist;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of formatted player list messages for each server, keyed by the
+ * version of the roster and the config they were rendered from. The cache may
+ * be used from any thread.
+ */
+public class MessageCache {
+
+    private final Map<String, Entry> entries;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+
+    /**
+     * Creates an empty cache.
+     */
+    public MessageCache() {
+        entries = new ConcurrentHashMap<String, Entry>();
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+    }
+
+    /**
+     * Gets the messages rendered for the given server's roster version.
+     *
+     * @param server the server
+     * @param version the roster version
+     * @param config the config the messages must have been rendered with
+     * @return the messages, or null if they are not cached
+     */
+    public List<String> get(String server, long version, ListConfig config) {
+        return get(server, "", version, config);
+    }
+
+    /**
+     * Gets the messages rendered for part of the given server's roster
+     * version, such as one page of it.
+     *
+     * @param key the server, or the server and the kind of part
+     * @param part the part, or an empty string for the whole roster
+     * @param version the roster version
+     * @param config the config the messages must have been rendered with
+     * @return the messages, or null if they are not cached
+     */
+    public List<String> get(String key, String part, long version, ListConfig config) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.version == version && entry.config == config && entry.part.equals(part)) {
+            hits.incrementAndGet();
+            return entry.messages;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Caches the messages rendered for the given server's roster version,
+     * replacing any older rendering for that server.
+     *
+     * @param server the server
+     * @param version the roster version
+     * @param config the config the messages were rendered with
+     * @param messages the messages
+     * @return a read-only view of the cached messages
+     */
+    public List<String> put(String server, long version, ListConfig config, List<String> messages) {
+        return put(server, "", version, config, messages);
+    }
+
+    /**
+     * Caches the messages rendered for part of the given server's roster
+     * version, replacing anything cached under the same key. Only one part is
+     * kept for each key, so the cache cannot grow with the parts asked for.
+     *
+     * @param key the server, or the server and the kind of part
+     * @param part the part, or an empty string for the whole roster
+     * @param version the roster version
+     * @param config the config the messages were rendered with
+     * @param messages the messages
+     * @return a read-only view of the cached messages
+     */
+    public List<String> put(String key, String part, long version, ListConfig config, List<String> messages) {
+        Entry entry = new Entry(part, version, config, Collections.unmodifiableList(messages));
+        entries.put(key, entry);
+        return entry.messages;
+    }
+
+    /**
+     * Removes all cached messages, e.g. after the output format changes.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Gets the number of lookups that were answered from the cache.
+     *
+     * @return the hit count
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of lookups that had to be rendered.
+     *
+     * @return the miss count
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private static class Entry {
+
+        private final String part;
+        private final long version;
+        private final ListConfig config;
+        private final List<String> messages;
+
+        private Entry(String part, long version, ListConfig config, List<String> messages) {
+            this.part = part;
+            this.version = version;
+            this.config = config;
+            this.messages = messages;
+        }
+
+    }
+
+}
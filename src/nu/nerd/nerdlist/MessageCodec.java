@@ -0,0 +1,724 @@
+package nu.nerd.nerdlist;
+
+import com.google.common.io.ByteArrayDataInput;
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encodes and decodes messages sent between servers.
+ * <p>
+ * Messages are encoded in a compact binary format starting with a version
+ * byte. That byte always has its high bit set, which distinguishes binary
+ * messages from the JSON messages sent by older versions of the plugin, as
+ * those start with the high byte of a (non-negative) short string length.
+ * JSON messages are still decoded, and can still be encoded for servers that
+ * have not been upgraded.
+ * <p>
+ * Large responses may instead be sent with their roster deflated, but only
+ * to servers whose request said they accept that.
+ */
+public class MessageCodec {
+
+    /**
+     * The version byte of the current binary format.
+     */
+    public static final byte BINARY_V1 = (byte) 0x81;
+
+    /**
+     * The version byte of a binary response with a deflated roster.
+     */
+    public static final byte BINARY_DEFLATE = (byte) 0x82;
+
+    private static final int MAX_INFLATED = 8 * 1024 * 1024;
+
+    /**
+     * Creates a new codec. Codecs hold no state, so one codec may be used
+     * from several threads at once.
+     */
+    public MessageCodec() {
+    }
+
+    /**
+     * Determines whether the given payload is in the legacy JSON format.
+     *
+     * @param payload the payload
+     * @return whether the payload is JSON
+     */
+    public boolean isJSON(byte[] payload) {
+        return payload.length == 0 || (payload[0] & 0x80) == 0;
+    }
+
+    /**
+     * Encodes a message.
+     *
+     * @param message the message
+     * @param json whether to use the legacy JSON format
+     * @return the encoded payload
+     * @throws IllegalArgumentException if the message is too large for the legacy JSON format
+     */
+    public byte[] encode(ListMessage message, boolean json) {
+        if (message instanceof ListResponseMessage) {
+            ListResponseMessage response = (ListResponseMessage) message;
+            return json
+                    ? encodeResponseJSON(response, encodeResponseBodyJSON(response))
+                    : encodeResponse(response, encodeResponseBody(response));
+        }
+        if (json) {
+            return writeJSON(toJSON(message).toJSONString());
+        }
+        ByteArrayDataOutput out = ByteStreams.newDataOutput();
+        out.writeByte(BINARY_V1);
+        out.writeUTF(message.getServer());
+        out.writeUTF(message.getPlayer());
+        out.writeInt(message.getId());
+        if (message instanceof ListRequestMessage) {
+            ListRequestMessage request = (ListRequestMessage) message;
+            out.writeBoolean(request.isAdmin());
+            writeVarInt(out, request.getPage());
+            writeVarInt(out, request.getPageSize());
+            out.writeBoolean(request.getGroup() != null);
+            if (request.getGroup() != null) {
+                out.writeUTF(request.getGroup());
+            }
+            out.writeBoolean(request.isDeflate());
+            out.writeLong(request.getDictionary());
+        } else if (message instanceof RosterSyncMessage) {
+            RosterSyncMessage sync = (RosterSyncMessage) message;
+            out.writeByte(sync.getType().ordinal());
+            out.writeLong(sync.getEpoch());
+            out.writeLong(sync.getSequence());
+            out.writeLong(sync.getVersion());
+            out.writeByte(sync.getVisibility());
+            if (sync.getType() == RosterSyncMessage.Type.SNAPSHOT) {
+                writeGroups(out, sync.getGroups());
+            } else if (sync.getType() == RosterSyncMessage.Type.DELTA) {
+                writeVarInt(out, sync.getChanges().size());
+                for (Map.Entry<String, String> change : sync.getChanges().entrySet()) {
+                    out.writeUTF(change.getKey());
+                    out.writeUTF(change.getValue());
+                }
+            }
+        } else if (message instanceof FindRequestMessage) {
+            FindRequestMessage find = (FindRequestMessage) message;
+            out.writeBoolean(find.isAdmin());
+            out.writeUTF(find.getPrefix());
+            writeVarInt(out, find.getLimit());
+        } else if (message instanceof FindResponseMessage) {
+            writeGroups(out, ((FindResponseMessage) message).getMatches());
+        } else if (message instanceof CountRequestMessage) {
+            out.writeBoolean(((CountRequestMessage) message).isAdmin());
+        } else if (message instanceof CountResponseMessage) {
+            CountResponseMessage response = (CountResponseMessage) message;
+            out.writeBoolean(response.isAdmin());
+            out.writeLong(response.getCounts().getVersion());
+            writeVarInt(out, response.getCounts().getGroups().size());
+            for (Map.Entry<String, Integer> group : response.getCounts().getGroups().entrySet()) {
+                out.writeUTF(group.getKey());
+                writeVarInt(out, group.getValue());
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown message type " + message.getClass().getName());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Encodes the part of a response that only depends on the roster, so it
+     * can be reused for responses to different players.
+     *
+     * @param response the response
+     * @return the encoded roster
+     * @see #encodeResponse(ListResponseMessage, byte[])
+     */
+    public byte[] encodeResponseBody(ListResponseMessage response) {
+        ByteArrayDataOutput out = ByteStreams.newDataOutput();
+        out.writeLong(response.getVersion());
+        writeGroups(out, response.getGroups());
+        return out.toByteArray();
+    }
+
+    /**
+     * Encodes a response from its previously encoded roster.
+     *
+     * @param response the response, whose roster is ignored
+     * @param body the encoded roster
+     * @return the encoded payload
+     * @see #encodeResponseBody(ListResponseMessage)
+     */
+    public byte[] encodeResponse(ListResponseMessage response, byte[] body) {
+        ByteArrayDataOutput out = ByteStreams.newDataOutput();
+        out.writeByte(BINARY_V1);
+        out.writeUTF(response.getServer());
+        out.writeUTF(response.getPlayer());
+        out.writeInt(response.getId());
+        writeVarInt(out, response.getPage());
+        writeVarInt(out, response.getPages());
+        writeVarInt(out, response.getTotal());
+        out.writeBoolean(response.getGroup() != null);
+        if (response.getGroup() != null) {
+            out.writeUTF(response.getGroup());
+        }
+        out.write(body);
+        return out.toByteArray();
+    }
+
+    /**
+     * Encodes a response from its previously encoded and deflated roster.
+     *
+     * @param response the response, whose roster is ignored
+     * @param packed the deflated roster
+     * @param dictionary the roster version whose encoded roster was the deflate dictionary, or
+     *                   {@link ListResponseMessage#NO_VERSION}
+     * @param length the length of the encoded roster before it was deflated
+     * @return the encoded payload
+     * @see #deflate(byte[], byte[])
+     */
+    public byte[] encodeResponse(ListResponseMessage response, byte[] packed, long dictionary, int length) {
+        byte[] header = encodeResponse(response, new byte[0]);
+        header[0] = BINARY_DEFLATE;
+        ByteArrayDataOutput out = ByteStreams.newDataOutput();
+        out.write(header);
+        out.writeLong(dictionary);
+        writeVarInt(out, length);
+        out.write(packed);
+        return out.toByteArray();
+    }
+
+    /**
+     * Deflates an encoded roster.
+     *
+     * @param body the encoded roster
+     * @param dictionary the encoded roster the receiving server already holds, or null
+     * @return the deflated roster
+     */
+    public byte[] deflate(byte[] body, byte[] dictionary) {
+        Deflater deflater = new Deflater();
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(body);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 2 + 16);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private byte[] inflate(byte[] packed, byte[] dictionary, int length) {
+        if (length > MAX_INFLATED) {
+            throw new IllegalArgumentException("Roster too large: " + length + " bytes");
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(packed);
+            // One spare byte shows up a roster longer than it claims to be
+            byte[] body = new byte[length + 1];
+            int offset = 0;
+            while (!inflater.finished()) {
+                if (inflater.needsDictionary()) {
+                    if (dictionary == null) {
+                        throw new IllegalArgumentException("Missing roster dictionary");
+                    }
+                    inflater.setDictionary(dictionary);
+                }
+                int inflated = inflater.inflate(body, offset, body.length - offset);
+                if (inflated == 0 && (inflater.needsInput() || offset == body.length)) {
+                    throw new IllegalArgumentException("Truncated or oversized roster");
+                }
+                offset += inflated;
+            }
+            if (offset != length) {
+                throw new IllegalArgumentException("Roster length mismatch");
+            }
+            return Arrays.copyOf(body, length);
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Encodes the part of a response that only depends on the roster in the
+     * legacy JSON format.
+     *
+     * @param response the response
+     * @return the encoded roster
+     * @see #encodeResponseJSON(ListResponseMessage, String)
+     */
+    public String encodeResponseBodyJSON(ListResponseMessage response) {
+        StringBuilder body = new StringBuilder();
+        if (response.getVersion() != ListResponseMessage.NO_VERSION) {
+            body.append("\"version\":").append(response.getVersion()).append(',');
+        }
+        body.append("\"groups\":").append(groupMapToList(response.getGroups()).toJSONString()).append('}');
+        return body.toString();
+    }
+
+    /**
+     * Encodes a response in the legacy JSON format from its previously
+     * encoded roster.
+     *
+     * @param response the response, whose roster is ignored
+     * @param body the encoded roster
+     * @return the encoded payload
+     * @throws IllegalArgumentException if the response is too large for the legacy JSON format
+     * @see #encodeResponseBodyJSON(ListResponseMessage)
+     */
+    public byte[] encodeResponseJSON(ListResponseMessage response, String body) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"server\":\"").append(JSONValue.escape(response.getServer())).append("\",");
+        json.append("\"player\":\"").append(JSONValue.escape(response.getPlayer())).append("\",");
+        if (response.getId() != ListMessage.NO_ID) {
+            json.append("\"id\":").append(response.getId()).append(',');
+        }
+        if (response.getPage() != 0) {
+            json.append("\"page\":").append(response.getPage()).append(',');
+            json.append("\"pages\":").append(response.getPages()).append(',');
+            json.append("\"total\":").append(response.getTotal()).append(',');
+        }
+        if (response.getGroup() != null) {
+            json.append("\"group\":\"").append(JSONValue.escape(response.getGroup())).append("\",");
+        }
+        json.append(body);
+        return writeJSON(json.toString());
+    }
+
+    /**
+     * Decodes a request.
+     *
+     * @param payload the payload
+     * @return the request
+     * @throws IllegalArgumentException if the payload is malformed
+     */
+    public ListRequestMessage decodeRequest(byte[] payload) {
+        if (isJSON(payload)) {
+            JSONObject content = readJSON(payload);
+            return new ListRequestMessage((String) content.get("server"), (String) content.get("player"),
+                    readId(content), (boolean) content.get("admin"), (String) content.get("group"),
+                    readInt(content, "page", 0), readInt(content, "page-size", 0));
+        }
+        ByteArrayInputStream bytes = new ByteArrayInputStream(payload);
+        ByteArrayDataInput in = readBinary(payload, bytes);
+        try {
+            String server = in.readUTF();
+            String player = in.readUTF();
+            int id = in.readInt();
+            boolean admin = in.readBoolean();
+            int page = readVarInt(in);
+            int pageSize = readVarInt(in);
+            String group = in.readBoolean() ? in.readUTF() : null;
+            // Servers without compression support end their requests here
+            boolean deflate = false;
+            long dictionary = ListResponseMessage.NO_VERSION;
+            if (bytes.available() > 0) {
+                deflate = in.readBoolean();
+                dictionary = in.readLong();
+            }
+            return new ListRequestMessage(server, player, id, admin, group, page, pageSize, deflate, dictionary);
+        } catch (IllegalStateException e) {
+            throw new IllegalArgumentException("Truncated request", e);
+        }
+    }
+
+    /**
+     * Decodes a response.
+     *
+     * @param payload the payload
+     * @return the response
+     * @throws IllegalArgumentException if the payload is malformed
+     */
+    public ListResponseMessage decodeResponse(byte[] payload) {
+        return decodeResponse(payload, null);
+    }
+
+    /**
+     * Decodes a response, inflating its roster if needed. The roster of every
+     * whole binary response is recorded as a dictionary for later responses
+     * from the same server. A response compressed against a roster that is
+     * no longer held is returned without its roster.
+     *
+     * @param payload the payload
+     * @param dictionaries the rosters last received from each server, by lower case server name, or null
+     * @return the response
+     * @see ListResponseMessage#hasGroups()
+     * @throws IllegalArgumentException if the payload is malformed
+     */
+    @SuppressWarnings("unchecked")
+    public ListResponseMessage decodeResponse(byte[] payload, Map<String, RosterDictionary> dictionaries) {
+        if (isJSON(payload)) {
+            JSONObject content = readJSON(payload);
+            Object version = content.get("version");
+            Map<String, Collection<String>> groups = groupListToMap((List<Map<String, Object>>) content.get("groups"));
+            if (!content.containsKey("page") && !content.containsKey("group")) {
+                return new ListResponseMessage((String) content.get("server"), (String) content.get("player"),
+                        readId(content), version instanceof Number ? ((Number) version).longValue() : ListResponseMessage.NO_VERSION,
+                        groups);
+            }
+            return new ListResponseMessage((String) content.get("server"), (String) content.get("player"),
+                    readId(content), version instanceof Number ? ((Number) version).longValue() : ListResponseMessage.NO_VERSION,
+                    groups, (String) content.get("group"), readInt(content, "page", 0), readInt(content, "pages", 1), readInt(content, "total", 0));
+        }
+        boolean deflated = payload.length > 0 && payload[0] == BINARY_DEFLATE;
+        ByteArrayInputStream bytes = new ByteArrayInputStream(payload);
+        ByteArrayDataInput in = deflated ? ByteStreams.newDataInput(bytes) : readBinary(payload, bytes);
+        try {
+            if (deflated) {
+                in.readByte();
+            }
+            String server = in.readUTF();
+            String player = in.readUTF();
+            int id = in.readInt();
+            int page = readVarInt(in);
+            int pages = readVarInt(in);
+            int total = readVarInt(in);
+            String group = in.readBoolean() ? in.readUTF() : null;
+            byte[] body;
+            if (deflated) {
+                long version = in.readLong();
+                int length = readVarInt(in);
+                byte[] packed = new byte[bytes.available()];
+                in.readFully(packed);
+                byte[] dictionary = null;
+                if (version != ListResponseMessage.NO_VERSION) {
+                    RosterDictionary known = dictionaries == null ? null : dictionaries.get(server.toLowerCase());
+                    dictionary = known == null ? null : known.getBody(version);
+                    if (dictionary == null) {
+                        // The roster cannot be read, but the request can still be answered again
+                        return new ListResponseMessage(server, player, id, ListResponseMessage.NO_VERSION, null,
+                                group, page, pages, total);
+                    }
+                }
+                body = inflate(packed, dictionary, length);
+            } else {
+                body = new byte[bytes.available()];
+                in.readFully(body);
+            }
+            ByteArrayDataInput roster = ByteStreams.newDataInput(body);
+            long version = roster.readLong();
+            Map<String, Collection<String>> groups = readGroups(roster);
+            if (dictionaries != null && group == null && pages == 1 && version != ListResponseMessage.NO_VERSION) {
+                RosterDictionary known = dictionaries.get(server.toLowerCase());
+                if (known == null) {
+                    dictionaries.put(server.toLowerCase(), new RosterDictionary(version, body));
+                } else {
+                    known.put(version, body);
+                }
+            }
+            return new ListResponseMessage(server, player, id, version, groups, group, page, pages, total);
+        } catch (IllegalStateException e) {
+            throw new IllegalArgumentException("Truncated response", e);
+        }
+    }
+
+    /**
+     * Decodes a sync message. Sync messages are only sent in the binary format.
+     *
+     * @param payload the payload
+     * @return the sync message
+     * @throws IllegalArgumentException if the payload is malformed
+     */
+    public RosterSyncMessage decodeSync(byte[] payload) {
+        if (isJSON(payload)) {
+            throw new IllegalArgumentException("Sync messages must be binary");
+        }
+        ByteArrayDataInput in = readBinary(payload);
+        try {
+            String server = in.readUTF();
+            in.readUTF();
+            in.readInt();
+            int type = in.readUnsignedByte();
+            if (type >= RosterSyncMessage.Type.values().length) {
+                throw new IllegalArgumentException("Unknown sync message type " + type);
+            }
+            RosterSyncMessage.Type syncType = RosterSyncMessage.Type.values()[type];
+            long epoch = in.readLong();
+            long sequence = in.readLong();
+            long version = in.readLong();
+            int visibility = in.readUnsignedByte();
+            Map<String, Collection<String>> groups = null;
+            Map<String, String> changes = null;
+            if (syncType == RosterSyncMessage.Type.SNAPSHOT) {
+                groups = readGroups(in);
+            } else if (syncType == RosterSyncMessage.Type.DELTA) {
+                int count = readVarInt(in);
+                changes = new LinkedHashMap<String, String>();
+                for (int i = 0; i < count; i++) {
+                    changes.put(in.readUTF(), in.readUTF());
+                }
+            }
+            return new RosterSyncMessage(server, syncType, epoch, sequence, version, visibility, groups, changes);
+        } catch (IllegalStateException e) {
+            throw new IllegalArgumentException("Truncated sync message", e);
+        }
+    }
+
+    /**
+     * Decodes a find request. Find messages are only sent in the binary
+     * format.
+     *
+     * @param payload the payload
+     * @return the find request
+     * @throws IllegalArgumentException if the payload is malformed
+     */
+    public FindRequestMessage decodeFindRequest(byte[] payload) {
+        if (isJSON(payload)) {
+            throw new IllegalArgumentException("Find messages must be binary");
+        }
+        ByteArrayDataInput in = readBinary(payload);
+        try {
+            String server = in.readUTF();
+            String player = in.readUTF();
+            int id = in.readInt();
+            boolean admin = in.readBoolean();
+            String prefix = in.readUTF();
+            int limit = readVarInt(in);
+            return new FindRequestMessage(server, player, id, admin, prefix, limit);
+        } catch (IllegalStateException e) {
+            throw new IllegalArgumentException("Truncated find request", e);
+        }
+    }
+
+    /**
+     * Decodes a find response. Find messages are only sent in the binary
+     * format.
+     *
+     * @param payload the payload
+     * @return the find response
+     * @throws IllegalArgumentException if the payload is malformed
+     */
+    public FindResponseMessage decodeFindResponse(byte[] payload) {
+        if (isJSON(payload)) {
+            throw new IllegalArgumentException("Find messages must be binary");
+        }
+        ByteArrayDataInput in = readBinary(payload);
+        try {
+            String server = in.readUTF();
+            String player = in.readUTF();
+            int id = in.readInt();
+            return new FindResponseMessage(server, player, id, readGroups(in));
+        } catch (IllegalStateException e) {
+            throw new IllegalArgumentException("Truncated find response", e);
+        }
+    }
+
+    /**
+     * Decodes a count request. Count messages are only sent in the binary
+     * format.
+     *
+     * @param payload the payload
+     * @return the count request
+     * @throws IllegalArgumentException if the payload is malformed
+     */
+    public CountRequestMessage decodeCountRequest(byte[] payload) {
+        if (isJSON(payload)) {
+            throw new IllegalArgumentException("Count messages must be binary");
+        }
+        ByteArrayDataInput in = readBinary(payload);
+        try {
+            String server = in.readUTF();
+            String player = in.readUTF();
+            int id = in.readInt();
+            return new CountRequestMessage(server, player, id, in.readBoolean());
+        } catch (IllegalStateException e) {
+            throw new IllegalArgumentException("Truncated count request", e);
+        }
+    }
+
+    /**
+     * Decodes a count response. Count messages are only sent in the binary
+     * format.
+     *
+     * @param payload the payload
+     * @return the count response
+     * @throws IllegalArgumentException if the payload is malformed
+     */
+    public CountResponseMessage decodeCountResponse(byte[] payload) {
+        if (isJSON(payload)) {
+            throw new IllegalArgumentException("Count messages must be binary");
+        }
+        ByteArrayDataInput in = readBinary(payload);
+        try {
+            String server = in.readUTF();
+            String player = in.readUTF();
+            int id = in.readInt();
+            boolean admin = in.readBoolean();
+            long version = in.readLong();
+            int size = readVarInt(in);
+            Map<String, Integer> groups = new LinkedHashMap<String, Integer>();
+            for (int i = 0; i < size; i++) {
+                groups.put(in.readUTF(), readVarInt(in));
+            }
+            return new CountResponseMessage(server, player, id, admin, new ServerCounts(server, version, groups));
+        } catch (IllegalStateException e) {
+            throw new IllegalArgumentException("Truncated count response", e);
+        }
+    }
+
+    private ByteArrayDataInput readBinary(byte[] payload) {
+        return readBinary(payload, new ByteArrayInputStream(payload));
+    }
+
+    private ByteArrayDataInput readBinary(byte[] payload, ByteArrayInputStream bytes) {
+        if (payload[0] != BINARY_V1) {
+            throw new IllegalArgumentException("Unsupported message version " + (payload[0] & 0x7F));
+        }
+        ByteArrayDataInput in = ByteStreams.newDataInput(bytes);
+        in.readByte();
+        return in;
+    }
+
+    private void writeGroups(ByteArrayDataOutput out, Map<String, Collection<String>> groups) {
+        writeVarInt(out, groups.size());
+        for (Map.Entry<String, Collection<String>> group : groups.entrySet()) {
+            out.writeUTF(group.getKey());
+            writeVarInt(out, group.getValue().size());
+            for (String player : group.getValue()) {
+                out.writeUTF(player);
+            }
+        }
+    }
+
+    private Map<String, Collection<String>> readGroups(ByteArrayDataInput in) {
+        int groupCount = readVarInt(in);
+        Map<String, Collection<String>> groups = new LinkedHashMap<String, Collection<String>>();
+        for (int i = 0; i < groupCount; i++) {
+            String name = in.readUTF();
+            int playerCount = readVarInt(in);
+            List<String> players = new ArrayList<String>(Math.min(playerCount, 1024));
+            for (int j = 0; j < playerCount; j++) {
+                players.add(in.readUTF());
+            }
+            groups.put(name, Collections.unmodifiableList(players));
+        }
+        return Collections.unmodifiableMap(groups);
+    }
+
+    private void writeVarInt(ByteArrayDataOutput out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private int readVarInt(ByteArrayDataInput in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IllegalArgumentException("Negative length " + value);
+                }
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed length");
+    }
+
+    @SuppressWarnings("unchecked")
+    private JSONObject toJSON(ListMessage message) {
+        JSONObject object = new JSONObject();
+        object.put("server", message.getServer());
+        object.put("player", message.getPlayer());
+        if (message.getId() != ListMessage.NO_ID) {
+            object.put("id", message.getId());
+        }
+        if (message instanceof ListRequestMessage) {
+            ListRequestMessage request = (ListRequestMessage) message;
+            object.put("admin", request.isAdmin());
+            if (request.getPage() != 0) {
+                object.put("page", request.getPage());
+                object.put("page-size", request.getPageSize());
+            }
+            if (request.getGroup() != null) {
+                object.put("group", request.getGroup());
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown message type " + message.getClass().getName());
+        }
+        return object;
+    }
+
+    private byte[] writeJSON(String json) {
+        // Older servers read a single string, whose length must fit in an unsigned short
+        int length = 0;
+        for (int i = 0; i < json.length(); i++) {
+            char c = json.charAt(i);
+            length += c >= 0x01 && c <= 0x7F ? 1 : c <= 0x7FF ? 2 : 3;
+        }
+        if (length > 0xFFFF) {
+            throw new IllegalArgumentException("JSON message too large: " + length + " bytes");
+        }
+        ByteArrayDataOutput out = ByteStreams.newDataOutput();
+        out.writeUTF(json);
+        return out.toByteArray();
+    }
+
+    private JSONObject readJSON(byte[] payload) {
+        String str = ByteStreams.newDataInput(payload).readUTF();
+        try {
+            // JSONParser is not thread-safe, so each decode gets its own
+            return (JSONObject) new JSONParser().parse(str);
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private int readId(JSONObject content) {
+        return readInt(content, "id", ListMessage.NO_ID);
+    }
+
+    private int readInt(JSONObject content, String key, int def) {
+        Object value = content.get(key);
+        return value instanceof Number ? ((Number) value).intValue() : def;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Collection<String>> groupListToMap(List<Map<String, Object>> groups) {
+        Map<String, Collection<String>> groupMap = new LinkedHashMap<String, Collection<String>>();
+        for (Map<String, Object> group : groups) {
+            groupMap.put((String) group.get("name"),
+                    Collections.unmodifiableCollection((Collection<String>) group.get("players")));
+        }
+        return Collections.unmodifiableMap(groupMap);
+    }
+
+    @SuppressWarnings("unchecked")
+    private JSONArray groupMapToList(Map<String, Collection<String>> groups) {
+        JSONArray groupList = new JSONArray();
+        for (Map.Entry<String, Collection<String>> group : groups.entrySet()) {
+            JSONObject object = new JSONObject();
+            object.put("name", group.getKey());
+            object.put("players", new ArrayList<String>(group.getValue()));
+            groupList.add(object);
+        }
+        return groupList;
+    }
+
+}
@@ -0,0 +1,87 @@
+package nu.nerd.nerdlist;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * An index of player names to the name of the group they are listed under,
+ * sorted by name ignoring case so players can be looked up by prefix.
+ */
+public class NameIndex {
+
+    private final NavigableMap<String, String> names;
+
+    /**
+     * Creates an empty index.
+     */
+    public NameIndex() {
+        names = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+    }
+
+    /**
+     * Records the group a player is listed under.
+     *
+     * @param player the player's name
+     * @param group the group name
+     */
+    public void put(String player, String group) {
+        names.put(player, group);
+    }
+
+    /**
+     * Removes a player from the index.
+     *
+     * @param player the player's name
+     */
+    public void remove(String player) {
+        names.remove(player);
+    }
+
+    /**
+     * Removes every player from the index.
+     */
+    public void clear() {
+        names.clear();
+    }
+
+    /**
+     * Gets a read-only view of the index.
+     *
+     * @return the group name of each player, by player name
+     */
+    public Map<String, String> getNames() {
+        return Collections.unmodifiableMap(names);
+    }
+
+    /**
+     * Finds the players whose names start with the given prefix, ignoring
+     * case. Only the matching entries are visited.
+     *
+     * @param prefix the prefix
+     * @param limit the most players to return
+     * @return the matching players, sorted by name and separated by group name
+     */
+    public Map<String, Collection<String>> find(String prefix, int limit) {
+        Map<String, Collection<String>> matches = new LinkedHashMap<String, Collection<String>>();
+        int count = 0;
+        for (Map.Entry<String, String> entry : names.tailMap(prefix, true).entrySet()) {
+            if (count >= limit || !entry.getKey().regionMatches(true, 0, prefix, 0, prefix.length())) {
+                break;
+            }
+            Collection<String> players = matches.get(entry.getValue());
+            if (players == null) {
+                players = new ArrayList<String>();
+                matches.put(entry.getValue(), players);
+            }
+            players.add(entry.getKey());
+            count++;
+        }
+        return matches;
+    }
+
+}
@@ -3,6 +3,7 @@ package nu.nerd.nerdlist;
 import org.bukkit.ChatColor;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
@@ -10,19 +11,28 @@ import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.PluginDescriptionFile;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.plugin.java.JavaPluginLoader;
+import org.bukkit.scheduler.BukkitTask;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeSet;
+import java.util.Set;
+import java.util.UUID;
 
 /**
  * The NerdList plugin.
@@ -31,56 +41,155 @@ public class NerdList extends JavaPlugin implements Listener {
 
     private static NerdList instance;
 
-    private int visibility;
-    private String outputIntro;
-    private String outputLabel;
-    private List<ChatColor> outputListColors;
-    private String outputListDelimiter;
-    private String outputCount;
-    private List<ListGroup> displayGroups;
-    private List<ListGroup> testGroups;
-    private Collection<String> hiddenPlayers;
+    private volatile ListConfig settings;
+    private Map<UUID, String> hiddenPlayers;
+    private Set<String> hiddenNames;
 
     private String serverName;
+    private boolean serverNameConfirmed;
+    private String savedServerName;
+    private AsyncFileWriter serverWriter;
     private FileConfiguration playerConfig;
+    private AsyncFileWriter playerWriter;
+    private BukkitTask saveTask;
+    private MemberIndex members;
+    private MessageCache messages;
     private ListHandler handler;
+    private RosterReplicator replicator;
+    private ListMetrics metrics;
+    private AsyncFileWriter statsWriter;
+    private BukkitTask statsTask;
+    private BukkitTask serverListTask;
+    private RosterEndpoint endpoint;
+    private BukkitTask endpointTask;
+
+    /**
+     * Creates the plugin. This is the constructor Bukkit loads the plugin with.
+     */
+    public NerdList() {
+    }
+
+    /**
+     * Creates the plugin outside of Bukkit's plugin loader, so that it can be
+     * run against a simulated server.
+     *
+     * @param loader the plugin loader, holding the server
+     * @param description the plugin description
+     * @param dataFolder the data folder
+     * @param file the plugin file
+     */
+    protected NerdList(JavaPluginLoader loader, PluginDescriptionFile description, File dataFolder, File file) {
+        super(loader, description, dataFolder, file);
+    }
 
     @Override
     public void onEnable() {
         NerdList.instance = this;
+        members = new MemberIndex();
+        metrics = new ListMetrics();
+        statsWriter = new AsyncFileWriter(this, new File(getDataFolder(), "stats.prom"));
+        messages = new MessageCache();
+        playerWriter = new AsyncFileWriter(this, new File(getDataFolder(), "players.yml"));
+        serverWriter = new AsyncFileWriter(this, new File(getDataFolder(), "server.yml"));
+        loadServerName();
         reloadConfig();
-        getServer().getPluginManager().registerEvents(this, this);
         handler = new ListHandler(this);
+        configureTransport();
+        configureReplication();
+        configureEndpoint();
+        getServer().getPluginManager().registerEvents(this, this);
         getServer().getMessenger().registerOutgoingPluginChannel(this, "BungeeCord");
         getServer().getMessenger().registerIncomingPluginChannel(this, "BungeeCord", handler);
+        // Players are already online after a reload, so the name can be checked straight away
+        getServer().getScheduler().runTaskLater(this, new Runnable() {
+            @Override
+            public void run() {
+                handler.requestServerName();
+            }
+        }, 1);
+    }
+
+    @Override
+    public void onDisable() {
+        stopEndpoint();
+        handler.shutdown();
+        if (replicator != null) {
+            replicator.stop();
+        }
+        if (saveTask != null) {
+            savePlayers(true);
+        }
+        // A save already handed to the scheduler would be cancelled with the plugin
+        playerWriter.flushPending();
+        serverWriter.flushPending();
     }
 
     @Override
     public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
         if (command.getName().equalsIgnoreCase("list")) {
-            if (args.length == 0) {
-                sendPlayerList(sender);
-            } else if (args.length == 1) {
-                if (!(sender instanceof Player)) {
-                    sender.sendMessage(ChatColor.RED + "Cross-server list commands can only be run by players.");
-                    return true;
+            String server = null;
+            String group = null;
+            int page = 1;
+            int index = 0;
+            if (args.length > 0 && args[0].equalsIgnoreCase("find")) {
+                if (args.length != 2) {
+                    sender.sendMessage(ChatColor.RED + "Usage: /list find <name>");
+                } else {
+                    handler.findPlayers(sender, args[1]);
                 }
-                String server = args[0];
-                // TODO Synchronize server list across all servers instead of doing this
-                if (server.equalsIgnoreCase("all")) {
-                    server = "ALL";
-                    sendPlayerList(sender);
+                return true;
+            }
+            if (args.length > 0 && args[0].equalsIgnoreCase("count")) {
+                if (args.length > 2) {
+                    sender.sendMessage(ChatColor.RED + "Usage: /list count [<server>|all]");
                 } else {
-                    server = server.toLowerCase();
-                    if (server.equalsIgnoreCase(serverName)) {
-                        sendPlayerList(sender);
-                        return true;
-                    }
+                    countPlayers(sender, args.length == 2 ? args[1] : null);
                 }
-                handler.sendListRequest(server, (Player) sender);
-            } else {
-                sender.sendMessage(ChatColor.RED + "Usage: /list [<server|all]");
+                return true;
+            }
+            if (index < args.length && parsePage(args[index]) == 0) {
+                server = args[index++];
+            }
+            if (server != null && index + 1 < args.length && args[index].equalsIgnoreCase("group")) {
+                group = args[index + 1];
+                index += 2;
+            }
+            if (index < args.length) {
+                page = parsePage(args[index++]);
+            }
+            if (page == 0 || index < args.length) {
+                sender.sendMessage(ChatColor.RED + "Usage: /list [<server>|all] [group <name>] [page]"
+                        + " | /list find <name> | /list count [<server>|all]");
+                return true;
             }
+
+            if (server == null || server.equalsIgnoreCase(serverName)) {
+                sendPlayerList(sender, group, page);
+                return true;
+            }
+            if (!(sender instanceof Player)) {
+                sender.sendMessage(ChatColor.RED + "Cross-server list commands can only be run by players.");
+                return true;
+            }
+            if (server.equalsIgnoreCase("all")) {
+                handler.gatherListRequest((Player) sender);
+                return true;
+            }
+            ServerDirectory directory = handler.getDirectory();
+            if (!directory.contains(server)) {
+                sender.sendMessage(ChatColor.RED + "There is no server named " + server + ".");
+                return true;
+            }
+            server = directory.isKnown() ? directory.getName(server) : server.toLowerCase();
+            RosterReplica replica = replicator == null ? null : replicator.getReplica(server);
+            if (replica != null) {
+                if (replicator.isVisible(replica, sender)) {
+                    sendMessageList(sender, ListSlice.of(replica.getGroups(), group, page, settings.getPageSize()),
+                            replica.getServer(), replica.getVersion());
+                }
+                return true;
+            }
+            handler.sendListRequest(server, (Player) sender, group, page);
             return true;
         }
 
@@ -125,70 +234,215 @@ public class NerdList extends JavaPlugin implements Listener {
         }
 
         if (command.getName().equalsIgnoreCase("list-reload")) {
-            reloadConfig();
+            reloadConfigLater(sender);
+            return true;
+        }
+
+        if (command.getName().equalsIgnoreCase("list-stats")) {
+            for (String line : metrics.toMessageList()) {
+                sender.sendMessage(line);
+            }
+            PendingQueue pending = handler.getPendingQueue();
+            sender.sendMessage("§6Pending:§f " + pending.size() + " waiting, " + pending.getQueued() + " queued, "
+                    + pending.getExpired() + " expired, " + pending.getDropped() + " dropped");
+            sender.sendMessage("§6List cache:§f " + messages.getHits() + " hits, " + messages.getMisses()
+                    + " misses");
+            sender.sendMessage("§6Response cache:§f " + handler.getResponseCache().getHits() + " hits, "
+                    + handler.getResponseCache().getMisses() + " misses");
+            if (replicator != null) {
+                sender.sendMessage("§6Replicas:§f " + replicator.getReplicas().size());
+            }
             return true;
         }
         return false;
     }
 
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+        if (command.getName().equalsIgnoreCase("list") && handler != null) {
+            if (args.length == 1) {
+                List<String> matches = handler.getDirectory().complete(args[0]);
+                if ("find".regionMatches(true, 0, args[0], 0, args[0].length())) {
+                    matches.add(0, "find");
+                }
+                if ("count".regionMatches(true, 0, args[0], 0, args[0].length())) {
+                    matches.add(0, "count");
+                }
+                if ("all".regionMatches(true, 0, args[0], 0, args[0].length())) {
+                    matches.add(0, "all");
+                }
+                return matches;
+            }
+            if (args[0].equalsIgnoreCase("count")) {
+                if (args.length != 2) {
+                    return Collections.emptyList();
+                }
+                List<String> matches = handler.getDirectory().complete(args[1]);
+                if ("all".regionMatches(true, 0, args[1], 0, args[1].length())) {
+                    matches.add(0, "all");
+                }
+                return matches;
+            }
+            if (args[0].equalsIgnoreCase("find")) {
+                // Names on other servers are not known until the search is made
+                return args.length == 2 ? super.onTabComplete(sender, command, alias, args)
+                        : Collections.<String>emptyList();
+            }
+            if (args.length == 2 && "group".regionMatches(true, 0, args[1], 0, args[1].length())
+                    && parsePage(args[0]) == 0 && !args[0].equalsIgnoreCase("all")
+                    && !args[0].equalsIgnoreCase("find") && !args[0].equalsIgnoreCase("count")) {
+                return Collections.singletonList("group");
+            }
+            return Collections.emptyList();
+        }
+        return super.onTabComplete(sender, command, alias, args);
+    }
+
+    /**
+     * Sends the player counts of a server, or of every server, to the sender.
+     *
+     * @param sender the sender
+     * @param server the server, all, or null for this server
+     */
+    private void countPlayers(CommandSender sender, String server) {
+        if (server == null || server.equalsIgnoreCase(serverName)) {
+            sender.sendMessage(getCountMessage(getServerCounts()));
+            return;
+        }
+        if (server.equalsIgnoreCase("all")) {
+            handler.gatherCounts(sender, null);
+            return;
+        }
+        ServerDirectory directory = handler.getDirectory();
+        if (!directory.contains(server)) {
+            sender.sendMessage(ChatColor.RED + "There is no server named " + server + ".");
+            return;
+        }
+        server = directory.isKnown() ? directory.getName(server) : server.toLowerCase();
+        RosterReplica replica = replicator == null ? null : replicator.getReplica(server);
+        if (replica != null) {
+            if (replicator.isVisible(replica, sender)) {
+                sender.sendMessage(getCountMessage(ServerCounts.of(replica.getServer(), replica.getVersion(),
+                        replica.getGroups())));
+            }
+            return;
+        }
+        handler.gatherCounts(sender, server);
+    }
+
+    /**
+     * Parses a page number given as a command argument.
+     *
+     * @param arg the argument
+     * @return the page number, or 0 if the argument is not a page number
+     */
+    private int parsePage(String arg) {
+        try {
+            return Math.max(0, Integer.parseInt(arg));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
     @Override
     public void reloadConfig() {
         saveDefaultConfig();
         super.reloadConfig();
-        FileConfiguration config = getConfig();
-        String visibilityString = config.getString("visibility", "ALL").toUpperCase();
-        switch (visibilityString) {
-            case "ALL":
-                visibility = 2;
-                break;
-            case "ADMIN":
-                visibility = 1;
-                break;
-            case "NONE":
-                visibility = 0;
-                break;
-            default:
-                getLogger().warning("Invalid visibility '" + visibilityString + "'; defaulting to ALL. Please check " +
-                        "config.yml");
-                visibility = 2;
-                break;
-        }
+        applyConfig(new ListConfig(getConfig(), getLogger()));
+    }
 
-        outputIntro = config.getString("output.intro", "Online players:");
-        outputLabel = config.getString("output.label", "§6%s: ");
-        outputListColors = new ArrayList<ChatColor>();
-        for (String color : config.getStringList("output.list.colors")) {
-            try {
-                outputListColors.add(ChatColor.valueOf(color.toUpperCase()));
-            } catch (IllegalArgumentException e) {
-                getLogger().warning("Invalid list color '" + color + "'. Please check config.yml");
+    /**
+     * Reloads the configuration, parsing it on another thread and then
+     * replacing the current settings on the main thread.
+     *
+     * @param sender the sender to tell once the configuration is reloaded
+     */
+    public void reloadConfigLater(final CommandSender sender) {
+        saveDefaultConfig();
+        final File configFile = new File(getDataFolder(), "config.yml");
+        getServer().getScheduler().runTaskAsynchronously(this, new Runnable() {
+            @Override
+            public void run() {
+                YamlConfiguration config = YamlConfiguration.loadConfiguration(configFile);
+                InputStream defaults = getResource("config.yml");
+                if (defaults != null) {
+                    config.setDefaults(YamlConfiguration.loadConfiguration(
+                            new InputStreamReader(defaults, StandardCharsets.UTF_8)));
+                }
+                final ListConfig loaded = new ListConfig(config, getLogger());
+                getServer().getScheduler().runTask(NerdList.this, new Runnable() {
+                    @Override
+                    public void run() {
+                        applyConfig(loaded);
+                        sender.sendMessage(ChatColor.GREEN + "NerdList configuration reloaded.");
+                    }
+                });
             }
+        });
+    }
+
+    /**
+     * Replaces the current settings, and updates everything that depends on
+     * them. This must be called on the main thread.
+     *
+     * @param loaded the new settings
+     */
+    private void applyConfig(ListConfig loaded) {
+        ListConfig previous = settings;
+        settings = loaded;
+        if (statsTask != null) {
+            statsTask.cancel();
+            statsTask = null;
         }
-        outputListDelimiter = config.getString("output.list.delimiter", " ");
-        outputCount = config.getString("outputCount", "§7Total:§f %d players");
-        displayGroups = new LinkedList<ListGroup>();
-        for (Map group : config.getMapList("groups")) {
-            try {
-                String name = (String) group.get("name");
-                String permission = (String) group.get("permission");
-                int priority = (int) group.get("priority");
-                displayGroups.add(new ListGroup(name, permission, priority));
-            } catch (Exception e) {
-                getLogger().warning("An error was found in your group definitions. Please check config.yml");
-                e.printStackTrace();
+        if (loaded.getStatsInterval() > 0) {
+            statsTask = getServer().getScheduler().runTaskTimer(this, new Runnable() {
+                @Override
+                public void run() {
+                    dumpStats();
+                }
+            }, loaded.getStatsInterval(), loaded.getStatsInterval());
+        }
+        if (serverListTask != null) {
+            serverListTask.cancel();
+        }
+        serverListTask = getServer().getScheduler().runTaskTimer(this, new Runnable() {
+            @Override
+            public void run() {
+                handler.requestServerList();
             }
+        }, loaded.getServerListInterval(), loaded.getServerListInterval());
+        if (handler != null) {
+            handler.getPendingQueue().setLimits(loaded.getPendingCapacity(), loaded.getPendingTTL());
+        }
+        // The name BungeeCord reports wins over the configured and saved names
+        if (!serverNameConfirmed) {
+            serverName = loaded.getServerName() != null ? loaded.getServerName() : savedServerName;
         }
-        testGroups = new ArrayList<ListGroup>(displayGroups);
-        Collections.sort(testGroups);
 
-        hiddenPlayers = new HashSet<String>();
+        if (saveTask != null) {
+            savePlayers(true);
+        }
+        playerWriter.flushPending();
+        hiddenPlayers = new HashMap<UUID, String>();
+        hiddenNames = new HashSet<String>();
         playerConfig = new YamlConfiguration();
         File playerConfigFile = new File(getDataFolder(), "players.yml");
         if (playerConfigFile.exists()) {
             try {
                 playerConfig.load(playerConfigFile);
+                ConfigurationSection hiddenSection = playerConfig.getConfigurationSection("hidden-players");
+                if (hiddenSection != null) {
+                    for (String id : hiddenSection.getKeys(false)) {
+                        try {
+                            hiddenPlayers.put(UUID.fromString(id), hiddenSection.getString(id));
+                        } catch (IllegalArgumentException e) {
+                            getLogger().warning("Invalid player UUID '" + id + "'. Please check players.yml");
+                        }
+                    }
+                }
+                // Players hidden by name are moved to hidden-players when they next join
                 for (String player : playerConfig.getStringList("hidden")) {
-                    hiddenPlayers.add(player.toLowerCase());
+                    hiddenNames.add(player.toLowerCase());
                 }
             } catch (Exception e) {
                 getLogger().warning("An error occurred while reading your player configuration file. Please check "
@@ -196,31 +450,185 @@ public class NerdList extends JavaPlugin implements Listener {
             }
         }
 
+        messages.clear();
+        if (handler != null) {
+            if (!loaded.isSameTransport(previous)) {
+                configureTransport();
+            }
+            configureReplication();
+            if (!loaded.isSameHttp(previous)) {
+                configureEndpoint();
+            } else if (endpoint != null) {
+                scheduleEndpointRefresh();
+            }
+        }
+        recachePlayers();
         getLogger().info("Reloaded configuration.");
     }
 
+    private void configureTransport() {
+        ListConfig settings = this.settings;
+        InetSocketAddress address = settings.getTransportAddress();
+        // The old transport is closed first, as a new socket transport may need its port
+        handler.setTransport(new BungeeTransport(this));
+        switch (settings.getTransportType()) {
+            case "BUNGEE":
+                break;
+            case "SOCKET":
+                if (address == null) {
+                    break;
+                }
+                try {
+                    handler.setTransport(new SocketTransport(getLogger(), handler, address,
+                            settings.getTransportPeers()));
+                    getLogger().info("Listening for other servers on " + address + ".");
+                } catch (IOException e) {
+                    getLogger().warning("Unable to listen on " + address + "; falling back to BUNGEE: " + e);
+                }
+                break;
+            case "LOOPBACK":
+                handler.setTransport(new LoopbackTransport(handler));
+                break;
+            default:
+                getLogger().warning("Invalid transport '" + settings.getTransportType() + "'; defaulting to BUNGEE. "
+                        + "Please check config.yml");
+                break;
+        }
+    }
+
+    private void configureReplication() {
+        if (settings.isReplicationEnabled()) {
+            if (replicator == null) {
+                replicator = new RosterReplicator(this, handler);
+                members.setListener(replicator);
+            }
+            replicator.start();
+        } else if (replicator != null) {
+            replicator.stop();
+            members.setListener(null);
+            replicator = null;
+        }
+    }
+
+    private void configureEndpoint() {
+        stopEndpoint();
+        InetSocketAddress address = settings.getHttpAddress();
+        if (!settings.isHttpEnabled() || address == null) {
+            return;
+        }
+        try {
+            endpoint = new RosterEndpoint(this, address);
+            endpoint.refresh();
+            scheduleEndpointRefresh();
+            getLogger().info("Serving the roster on http://" + address.getHostString() + ":" + address.getPort()
+                    + RosterEndpoint.PATH + ".");
+        } catch (IOException e) {
+            getLogger().warning("Unable to serve the roster on " + address + ": " + e);
+        }
+    }
+
+    private void scheduleEndpointRefresh() {
+        if (endpointTask != null) {
+            endpointTask.cancel();
+        }
+        endpointTask = getServer().getScheduler().runTaskTimer(this, new Runnable() {
+            @Override
+            public void run() {
+                endpoint.refresh();
+            }
+        }, settings.getHttpRefreshInterval(), settings.getHttpRefreshInterval());
+    }
+
+    private void stopEndpoint() {
+        if (endpointTask != null) {
+            endpointTask.cancel();
+            endpointTask = null;
+        }
+        if (endpoint != null) {
+            endpoint.stop();
+            endpoint = null;
+        }
+    }
+
     /**
-     * Gets a list of players online, separated by groups.
-     *
-     * @return the online players
+     * Writes the current metrics to stats.prom in the data folder.
      */
-    public Map<ListGroup, Collection<String>> getPlayerList() {
-        Map<ListGroup, Collection<String>> groups = new LinkedHashMap<ListGroup, Collection<String>>();
-        for (ListGroup group : displayGroups) {
-            groups.put(group, new TreeSet<>(String.CASE_INSENSITIVE_ORDER));
+    private void dumpStats() {
+        StringBuilder out = new StringBuilder(metrics.toExposition());
+        PendingQueue pending = handler.getPendingQueue();
+        ListMetrics.appendGauge(out, "nerdlist_pending_depth", pending.size());
+        ListMetrics.appendCounter(out, "nerdlist_pending_queued_total", pending.getQueued());
+        ListMetrics.appendCounter(out, "nerdlist_pending_expired_total", pending.getExpired());
+        ListMetrics.appendCounter(out, "nerdlist_pending_dropped_total", pending.getDropped());
+        ListMetrics.appendCounter(out, "nerdlist_list_cache_hits_total", messages.getHits());
+        ListMetrics.appendCounter(out, "nerdlist_list_cache_misses_total", messages.getMisses());
+        ListMetrics.appendCounter(out, "nerdlist_response_cache_hits_total", handler.getResponseCache().getHits());
+        ListMetrics.appendCounter(out, "nerdlist_response_cache_misses_total",
+                handler.getResponseCache().getMisses());
+        ListMetrics.appendGauge(out, "nerdlist_listed_players", countListed());
+        if (replicator != null) {
+            ListMetrics.appendGauge(out, "nerdlist_replicas", replicator.getReplicas().size());
         }
+        statsWriter.write(out.toString());
+    }
+
+    private int countListed() {
+        int count = 0;
+        for (Collection<String> players : getPlayerList().values()) {
+            count += players.size();
+        }
+        return count;
+    }
+
+    /**
+     * Recomputes the listed group of every online player.
+     */
+    public void recachePlayers() {
+        members.reset(settings.getDisplayGroups());
         for (Player player : getServer().getOnlinePlayers()) {
-            // TODO cache group membership
-            if (!isPlayerHidden(player.getName())) {
-                for (ListGroup group : testGroups) {
-                    if (group.isMember(player)) {
-                        groups.get(group).add(player.getName());
-                        break;
-                    }
-                }
+            recachePlayer(player);
+        }
+    }
+
+    /**
+     * Recomputes the listed group of the given player. This should be called
+     * whenever a player's permissions change in a way that affects their group.
+     *
+     * @param player the player
+     */
+    public void recachePlayer(Player player) {
+        String hiddenName = hiddenPlayers.get(player.getUniqueId());
+        if (hiddenName == null && !hiddenNames.isEmpty() && hiddenNames.remove(player.getName().toLowerCase())) {
+            hiddenName = player.getName();
+            hiddenPlayers.put(player.getUniqueId(), hiddenName);
+            savePlayersLater();
+        }
+        if (hiddenName != null) {
+            if (!hiddenName.equals(player.getName())) {
+                hiddenPlayers.put(player.getUniqueId(), player.getName());
+                savePlayersLater();
             }
+            members.put(player, null, true);
+            return;
         }
-        return groups;
+        ListGroup listed = null;
+        for (ListGroup group : settings.getTestGroups()) {
+            if (group.isMember(player)) {
+                listed = group;
+                break;
+            }
+        }
+        members.put(player, listed);
+    }
+
+    /**
+     * Gets a list of players online, separated by groups. The returned map is
+     * a read-only view of the group cache and must not be held across ticks.
+     *
+     * @return the online players
+     */
+    public Map<ListGroup, Collection<String>> getPlayerList() {
+        return members.getGroups();
     }
 
     /**
@@ -231,31 +639,217 @@ public class NerdList extends JavaPlugin implements Listener {
      * @return a list of message strings
      */
     public List<String> toMessageList(Map<?, Collection<String>> list, String server) {
+        return toMessageList(ListSlice.of(list, null, 0, 0), server);
+    }
+
+    /**
+     * Formats one page of a player list as a list of messages.
+     *
+     * @param slice the page
+     * @param server the server this list is from
+     * @return a list of message strings
+     */
+    public List<String> toMessageList(ListSlice slice, String server) {
+        return toMessageList(slice, server, settings);
+    }
+
+    private List<String> toMessageList(ListSlice slice, String server, ListConfig settings) {
+        long start = System.nanoTime();
+        List<String> messages = formatMessageList(slice, server, settings);
+        metrics.rendered(System.nanoTime() - start);
+        return messages;
+    }
+
+    /**
+     * Formats one page of a player list as a list of messages, using the
+     * given settings. This does not touch the plugin, so it may be called
+     * from any thread.
+     *
+     * @param slice the page
+     * @param server the server this list is from
+     * @param settings the settings holding the output formats
+     * @return a list of message strings
+     */
+    public static List<String> formatMessageList(ListSlice slice, String server, ListConfig settings) {
+        List<ChatColor> colors = settings.getOutputListColors();
         List<String> messages = new LinkedList<String>();
-        int count = 0;
-        messages.add(String.format(outputIntro, server));
-        for (Map.Entry<?, Collection<String>> group : list.entrySet()) {
+        messages.add(String.format(settings.getOutputIntro(), server));
+        for (Map.Entry<?, Collection<String>> group : slice.getGroups().entrySet()) {
             Collection<String> players = group.getValue();
-            count += players.size();
             if (!players.isEmpty()) {
                 StringBuilder line = new StringBuilder();
-                line.append(String.format(outputLabel, group.getKey().toString()));
+                line.append(String.format(settings.getOutputLabel(), group.getKey().toString()));
                 int index = 0;
                 for (String player : players) {
-                    line.append(outputListColors.get(index % outputListColors.size()));
+                    line.append(colors.get(index % colors.size()));
                     line.append(player);
                     if (index + 1 < players.size()) {
-                        line.append(outputListDelimiter);
+                        line.append(settings.getOutputListDelimiter());
                     }
                     index++;
                 }
                 messages.add(line.toString());
             }
         }
-        messages.add(String.format(outputCount, count));
+        messages.add(String.format(settings.getOutputCount(), slice.getTotal()));
+        if (slice.getPages() > 1) {
+            messages.add(String.format(settings.getOutputPage(), slice.getPage(), slice.getPages()));
+        }
+        return messages;
+    }
+
+    /**
+     * Formats the players found on a server as a list of messages, one for
+     * each player.
+     *
+     * @param matches the matching players, separated by group name
+     * @param server the server the players are on
+     * @return a list of message strings
+     */
+    public List<String> getFindMessageList(Map<String, Collection<String>> matches, String server) {
+        String format = settings.getOutputFindMatch();
+        List<String> messages = new ArrayList<String>();
+        for (Map.Entry<String, Collection<String>> group : matches.entrySet()) {
+            for (String player : group.getValue()) {
+                messages.add(String.format(format, player, server, group.getKey()));
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Formats the responses to a /list find query as a list of messages,
+     * followed by the servers that did not respond.
+     *
+     * @param gather the query
+     * @return a list of message strings
+     */
+    public List<String> toFindMessageList(ListGather gather) {
+        ListConfig settings = this.settings;
+        List<String> messages = new LinkedList<String>();
+        for (List<String> server : gather.getServers().values()) {
+            messages.addAll(server);
+        }
+        if (messages.isEmpty()) {
+            messages.add(String.format(settings.getOutputFindNone(), gather.getQuery()));
+        }
+        addMissingMessage(messages, gather, settings);
         return messages;
     }
 
+    /**
+     * Formats a server's player counts as a message.
+     *
+     * @param counts the counts
+     * @return the message
+     */
+    public String getCountMessage(ServerCounts counts) {
+        StringBuilder groups = new StringBuilder();
+        for (Map.Entry<String, Integer> group : counts.getGroups().entrySet()) {
+            if (group.getValue() > 0) {
+                groups.append(groups.length() == 0 ? "(" : ", ").append(group.getKey()).append(' ')
+                        .append(group.getValue());
+            }
+        }
+        if (groups.length() > 0) {
+            groups.append(')');
+        }
+        return String.format(settings.getOutputCountServer(), counts.getServer(), counts.getTotal(), groups);
+    }
+
+    /**
+     * Formats the responses to a count request as a list of messages. When
+     * every server was counted, the network total follows.
+     *
+     * @param gather the count request
+     * @return a list of message strings
+     */
+    public List<String> toCountMessageList(ListGather gather) {
+        ListConfig settings = this.settings;
+        List<String> messages = new LinkedList<String>();
+        for (List<String> server : gather.getServers().values()) {
+            messages.addAll(server);
+        }
+        if (gather.getQuery() == null) {
+            messages.add(String.format(settings.getOutputNetworkCount(), gather.getTotal(),
+                    gather.getServers().size()));
+        }
+        addMissingMessage(messages, gather, settings);
+        return messages;
+    }
+
+    private void addMissingMessage(List<String> messages, ListGather gather, ListConfig settings) {
+        if (!gather.getPending().isEmpty()) {
+            StringBuilder missing = new StringBuilder();
+            for (String server : gather.getPending()) {
+                if (missing.length() > 0) {
+                    missing.append(", ");
+                }
+                missing.append(server);
+            }
+            messages.add(String.format(settings.getOutputMissing(), missing));
+        }
+    }
+
+    /**
+     * Formats the responses to a network-wide list request as a list of
+     * messages, with each server's list followed by the network total.
+     *
+     * @param gather the network-wide list request
+     * @return a list of message strings
+     */
+    public List<String> toNetworkMessageList(ListGather gather) {
+        ListConfig settings = this.settings;
+        List<String> messages = new LinkedList<String>();
+        for (List<String> server : gather.getServers().values()) {
+            messages.addAll(server);
+        }
+        messages.add(String.format(settings.getOutputNetworkCount(), gather.getTotal(),
+                gather.getServers().size()));
+        addMissingMessage(messages, gather, settings);
+        return messages;
+    }
+
+    /**
+     * Formats a player list as a list of messages, reusing the messages last
+     * rendered for the server if its roster version has not changed.
+     *
+     * @param list the player list
+     * @param server the server this list is from
+     * @param version the version of the server's roster, or {@link ListResponseMessage#NO_VERSION}
+     * @return a read-only list of message strings
+     */
+    public List<String> getMessageList(Map<?, Collection<String>> list, String server, long version) {
+        return getMessageList(ListSlice.of(list, null, 0, 0), server, version);
+    }
+
+    /**
+     * Formats one page of a player list as a list of messages, reusing the
+     * messages last rendered for that page of the server's list if its roster
+     * version has not changed.
+     *
+     * @param slice the page
+     * @param server the server this list is from
+     * @param version the version of the server's roster, or {@link ListResponseMessage#NO_VERSION}
+     * @return a read-only list of message strings
+     */
+    public List<String> getMessageList(ListSlice slice, String server, long version) {
+        if (version == ListResponseMessage.NO_VERSION) {
+            return toMessageList(slice, server);
+        }
+        // Each server keeps its whole list and only its last page, as group names and pages are player input
+        String key = slice.isWhole() ? server : server + '/';
+        String part = slice.isWhole() ? ""
+                : (slice.getGroup() == null ? "" : slice.getGroup().toLowerCase()) + '#' + slice.getPage();
+        // Messages rendered with an older config are not reused
+        ListConfig settings = this.settings;
+        List<String> cached = this.messages.get(key, part, version, settings);
+        if (cached == null) {
+            cached = this.messages.put(key, part, version, settings, toMessageList(slice, server, settings));
+        }
+        return cached;
+    }
+
     /**
      * Sends the list to the given player as a message.
      *
@@ -263,20 +857,135 @@ public class NerdList extends JavaPlugin implements Listener {
      * @param list the player list
      * @param server the server this list is from
      */
-    public synchronized void sendMessageList(CommandSender player, Map<?, Collection<String>> list, String server) {
+    public void sendMessageList(CommandSender player, Map<?, Collection<String>> list, String server) {
         List<String> messages = toMessageList(list, server);
         for (String message : messages) {
             player.sendMessage(message);
         }
     }
 
+    /**
+     * Sends the list to the given player as a message, reusing the messages
+     * last rendered for the server if its roster version has not changed.
+     *
+     * @param player the player
+     * @param list the player list
+     * @param server the server this list is from
+     * @param version the version of the server's roster
+     */
+    public void sendMessageList(CommandSender player, Map<?, Collection<String>> list, String server,
+            long version) {
+        for (String message : getMessageList(list, server, version)) {
+            player.sendMessage(message);
+        }
+    }
+
+    /**
+     * Sends one page of a list to the given player as a message, reusing the
+     * messages last rendered for that page if the roster version has not
+     * changed.
+     *
+     * @param player the player
+     * @param slice the page
+     * @param server the server this list is from
+     * @param version the version of the server's roster, or {@link ListResponseMessage#NO_VERSION}
+     */
+    public void sendMessageList(CommandSender player, ListSlice slice, String server, long version) {
+        for (String message : getMessageList(slice, server, version)) {
+            player.sendMessage(message);
+        }
+    }
+
     /**
      * Sends this server's player list to the given player.
      *
      * @param player the player
      */
     public void sendPlayerList(CommandSender player) {
-        sendMessageList(player, getPlayerList(), serverName == null ? "this server" : serverName);
+        sendPlayerList(player, null, 0);
+    }
+
+    /**
+     * Sends one page of this server's player list to the given player.
+     *
+     * @param player the player
+     * @param group the name of the only group to list, or null for all groups
+     * @param page the page number, starting from 1, or 0 for the whole list
+     */
+    public void sendPlayerList(CommandSender player, String group, int page) {
+        sendMessageList(player, ListSlice.of(getPlayerList(), group, page, settings.getPageSize()),
+                serverName == null ? "this server" : serverName, members.getVersion());
+    }
+
+    /**
+     * Gets the number of players listed under each group on this server.
+     *
+     * @return the counts, by group name in display order
+     */
+    public Map<String, Integer> getPlayerCounts() {
+        return getServerCounts().getGroups();
+    }
+
+    /**
+     * Gets this server's player counts.
+     *
+     * @return the counts
+     */
+    public ServerCounts getServerCounts() {
+        return ServerCounts.of(serverName == null ? "this server" : serverName, members.getVersion(),
+                getPlayerList());
+    }
+
+    /**
+     * Gets the player counts of every server that can be counted without
+     * waiting. Counts from other servers may be a few seconds old, and
+     * servers not counted recently are counted in the background so that
+     * later calls include them. This must be called on the main thread.
+     *
+     * @return the counts, by server name
+     */
+    public Map<String, ServerCounts> getNetworkCounts() {
+        return handler.getNetworkCounts();
+    }
+
+    /**
+     * Finds the players listed on this server whose names start with the
+     * given prefix, ignoring case.
+     *
+     * @param prefix the prefix
+     * @param limit the most players to return
+     * @return the matching players, sorted by name and separated by group name
+     */
+    public Map<String, Collection<String>> findPlayers(String prefix, int limit) {
+        return members.find(prefix, limit);
+    }
+
+    /**
+     * Gets the version of this server's roster. The version changes whenever
+     * the player list would change.
+     *
+     * @return the roster version
+     */
+    public long getRosterVersion() {
+        return members.getVersion();
+    }
+
+    /**
+     * Gets the metrics describing NerdList's work.
+     *
+     * @return the metrics
+     */
+    public ListMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Gets the cache of rendered player list messages.
+     *
+     * @return the message cache
+     */
+    public MessageCache getMessageCache() {
+        return messages;
     }
 
     /**
@@ -285,14 +994,14 @@ public class NerdList extends JavaPlugin implements Listener {
      * @param player the player to hide
      */
     public void hidePlayer(String player) {
-        hiddenPlayers.add(player.toLowerCase());
-        List<String> players = new ArrayList<String>(hiddenPlayers);
-        playerConfig.set("hidden", players);
-        try {
-            playerConfig.save(new File(getDataFolder(), "players.yml"));
-        } catch (IOException e) {
-            getLogger().warning("An error occurred while saving your player configuration file.");
+        Player online = getServer().getPlayerExact(player);
+        if (online != null) {
+            hiddenPlayers.put(online.getUniqueId(), online.getName());
+        } else if (getHiddenId(player) == null) {
+            hiddenNames.add(player.toLowerCase());
         }
+        savePlayersLater();
+        recachePlayer(player);
     }
 
     /**
@@ -302,24 +1011,192 @@ public class NerdList extends JavaPlugin implements Listener {
      * @return whether the player was hidden
      */
     public boolean showPlayer(String player) {
-        boolean removed = hiddenPlayers.remove(player.toLowerCase());
-        List<String> players = new ArrayList<String>(hiddenPlayers);
-        playerConfig.set("hidden", players);
-        try {
-            playerConfig.save(new File(getDataFolder(), "players.yml"));
-        } catch (IOException e) {
-            getLogger().warning("An error occurred while saving your player configuration file.");
+        boolean removed = hiddenNames.remove(player.toLowerCase());
+        UUID id = getHiddenId(player);
+        if (id != null) {
+            hiddenPlayers.remove(id);
+            removed = true;
         }
+        if (removed) {
+            savePlayersLater();
+        }
+        recachePlayer(player);
         return removed;
     }
 
+    /**
+     * Schedules the player configuration file to be saved, unless a save is
+     * already scheduled. Changes made before the save runs are written together.
+     */
+    private void savePlayersLater() {
+        if (saveTask == null) {
+            saveTask = getServer().getScheduler().runTaskLater(this, new Runnable() {
+                @Override
+                public void run() {
+                    saveTask = null;
+                    savePlayers(false);
+                }
+            }, settings.getSaveInterval());
+        }
+    }
+
+    /**
+     * Saves the player configuration file.
+     *
+     * @param now whether to write the file on the calling thread
+     */
+    private void savePlayers(boolean now) {
+        if (saveTask != null) {
+            saveTask.cancel();
+            saveTask = null;
+        }
+        playerConfig.set("hidden", new ArrayList<String>(hiddenNames));
+        Map<String, String> hidden = new HashMap<String, String>();
+        for (Map.Entry<UUID, String> player : hiddenPlayers.entrySet()) {
+            hidden.put(player.getKey().toString(), player.getValue());
+        }
+        playerConfig.createSection("hidden-players", hidden);
+        String contents = playerConfig.saveToString();
+        if (now) {
+            playerWriter.writeNow(contents);
+        } else {
+            playerWriter.write(contents);
+        }
+    }
+
+    /**
+     * Gets the UUID of a hidden player by their last known name.
+     *
+     * @param name the player's name
+     * @return the UUID, or null if no player by that name is hidden
+     */
+    private UUID getHiddenId(String name) {
+        Player online = getServer().getPlayerExact(name);
+        if (online != null) {
+            return hiddenPlayers.containsKey(online.getUniqueId()) ? online.getUniqueId() : null;
+        }
+        for (Map.Entry<UUID, String> player : hiddenPlayers.entrySet()) {
+            if (player.getValue().equalsIgnoreCase(name)) {
+                return player.getKey();
+            }
+        }
+        return null;
+    }
+
+    private void recachePlayer(String name) {
+        Player player = getServer().getPlayerExact(name);
+        if (player != null) {
+            recachePlayer(player);
+        }
+    }
+
     /**
      * Gets this server's list visibility.
      *
      * @return the visibility
      */
     public int getVisibility() {
-        return visibility;
+        return settings.getVisibility();
+    }
+
+    /**
+     * Gets the number of players listed per page.
+     *
+     * @return the page size, or 0 if lists are not paged
+     */
+    public int getPageSize() {
+        return settings.getPageSize();
+    }
+
+    /**
+     * Gets the most players /list find returns from each server.
+     *
+     * @return the find limit
+     */
+    public int getFindLimit() {
+        return settings.getFindLimit();
+    }
+
+    /**
+     * Gets how long player counts received from other servers are reused.
+     *
+     * @return the time to live, in milliseconds
+     */
+    public long getCountTTL() {
+        return settings.getCountTTL();
+    }
+
+    /**
+     * Gets the smallest encoded roster that is compressed before it is sent.
+     *
+     * @return the threshold, in bytes, or 0 if compression is disabled
+     */
+    public int getCompressionThreshold() {
+        return settings.getCompressionThreshold();
+    }
+
+    /**
+     * Gets how often the servers on the network are requested from BungeeCord.
+     *
+     * @return the interval, in ticks
+     */
+    public long getServerListInterval() {
+        return settings.getServerListInterval();
+    }
+
+    /**
+     * Gets how long to wait for responses to a network-wide list request.
+     *
+     * @return the timeout, in ticks
+     */
+    public long getGatherTimeout() {
+        return settings.getGatherTimeout();
+    }
+
+    /**
+     * Gets the most requests that may wait to be sent.
+     *
+     * @return the pending queue capacity
+     */
+    public int getPendingCapacity() {
+        return settings.getPendingCapacity();
+    }
+
+    /**
+     * Gets how long requests may wait to be sent.
+     *
+     * @return the time to live, in milliseconds
+     */
+    public long getPendingTTL() {
+        return settings.getPendingTTL();
+    }
+
+    /**
+     * Gets how often this server pushes a full snapshot of its roster.
+     *
+     * @return the interval, in ticks
+     */
+    public long getSnapshotInterval() {
+        return settings.getSnapshotInterval();
+    }
+
+    /**
+     * Gets the replicator that keeps copies of other servers' rosters.
+     *
+     * @return the replicator, or null if replication is disabled
+     */
+    public RosterReplicator getReplicator() {
+        return replicator;
+    }
+
+    /**
+     * Determines whether requests should be sent in the legacy JSON format,
+     * for networks where not all servers have been upgraded yet.
+     *
+     * @return whether to use JSON
+     */
+    public boolean isLegacyWireFormat() {
+        return settings.isLegacyWireFormat();
     }
 
     /**
@@ -329,7 +1206,17 @@ public class NerdList extends JavaPlugin implements Listener {
      * @return whether the player is hidden
      */
     public boolean isPlayerHidden(String player) {
-        return hiddenPlayers.contains(player.toLowerCase());
+        return hiddenNames.contains(player.toLowerCase()) || getHiddenId(player) != null;
+    }
+
+    /**
+     * Determines whether the online player is hidden from the list.
+     *
+     * @param player the player
+     * @return whether the player is hidden
+     */
+    public boolean isPlayerHidden(Player player) {
+        return members.isHidden(player);
     }
 
     /**
@@ -350,6 +1237,38 @@ public class NerdList extends JavaPlugin implements Listener {
         this.serverName = serverName;
     }
 
+    /**
+     * Sets the name of the server as reported by BungeeCord, and saves it so
+     * it can be used as soon as the server next starts.
+     *
+     * @param name the server name
+     */
+    public void confirmServerName(String name) {
+        if (serverName != null && !serverName.equals(name)) {
+            getLogger().warning("BungeeCord calls this server '" + name + "', not '" + serverName + "'; using '"
+                    + name + "'. Please check server-name in config.yml");
+        }
+        serverName = name;
+        serverNameConfirmed = true;
+        if (!name.equals(savedServerName)) {
+            savedServerName = name;
+            YamlConfiguration state = new YamlConfiguration();
+            state.set("name", name);
+            serverWriter.write(state.saveToString());
+        }
+    }
+
+    /**
+     * Loads the server name last reported by BungeeCord.
+     */
+    private void loadServerName() {
+        File file = new File(getDataFolder(), "server.yml");
+        if (file.exists()) {
+            String name = YamlConfiguration.loadConfiguration(file).getString("name", "");
+            savedServerName = name.isEmpty() ? null : name;
+        }
+    }
+
     /**
      * Gets the current NerdList instance.
      *
@@ -361,14 +1280,28 @@ public class NerdList extends JavaPlugin implements Listener {
 
     @EventHandler(priority = EventPriority.MONITOR)
     public void onPlayerJoin(PlayerJoinEvent event) {
-        if (serverName == null) {
+        recachePlayer(event.getPlayer());
+        if (!serverNameConfirmed || handler.getPendingQueue().size() > 0 || !handler.getDirectory().isKnown()) {
             getServer().getScheduler().runTaskLater(this, new Runnable() {
                 @Override
                 public void run() {
-                    handler.requestServerName();
+                    if (!handler.getDirectory().isKnown()) {
+                        handler.requestServerList();
+                    }
+                    if (!serverNameConfirmed) {
+                        handler.requestServerName();
+                    }
+                    if (serverName != null) {
+                        handler.retryPending();
+                    }
                 }
             }, 1);
         }
     }
 
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        members.remove(event.getPlayer());
+    }
+
 }
@@ -0,0 +1,194 @@
+package nu.nerd.nerdlist;
+
+import com.google.common.io.ByteArrayDataInput;
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects the messages sent during a tick so they can be sent together.
+ * Messages to the same server over the same subchannel are packed into
+ * batches, and identical messages are only sent once.
+ */
+public class OutboundQueue {
+
+    /**
+     * The subchannel over which batches are sent.
+     */
+    public static final String BATCH_CHANNEL = "NerdListBatch";
+
+    private final Map<String, Destination> destinations;
+
+    /**
+     * Creates an empty queue.
+     */
+    public OutboundQueue() {
+        destinations = new LinkedHashMap<String, Destination>();
+    }
+
+    /**
+     * Adds a message to the queue, unless an identical message to the same
+     * server is already queued.
+     *
+     * @param server the server to which to send the message
+     * @param channel the subchannel over which to send the message
+     * @param payload the message payload
+     * @param batchable whether the message may be packed into a batch
+     */
+    public void add(String server, String channel, byte[] payload, boolean batchable) {
+        String key = server + '\0' + channel + '\0' + batchable;
+        Destination destination = destinations.get(key);
+        if (destination == null) {
+            destination = new Destination(server, channel, batchable);
+            destinations.put(key, destination);
+        }
+        destination.payloads.add(ByteBuffer.wrap(payload));
+    }
+
+    /**
+     * Determines whether the queue is empty.
+     *
+     * @return whether the queue is empty
+     */
+    public boolean isEmpty() {
+        return destinations.isEmpty();
+    }
+
+    /**
+     * Removes every queued message, packing them into batches where possible.
+     *
+     * @return the messages to send, in the order they were first queued
+     */
+    public List<Frame> drain() {
+        List<Frame> frames = new ArrayList<Frame>();
+        for (Destination destination : destinations.values()) {
+            if (!destination.batchable || destination.payloads.size() == 1) {
+                for (ByteBuffer payload : destination.payloads) {
+                    frames.add(new Frame(destination.server, destination.channel, payload.array()));
+                }
+                continue;
+            }
+            int size = 0;
+            List<ByteBuffer> entries = new ArrayList<ByteBuffer>();
+            for (ByteBuffer payload : destination.payloads) {
+                int length = payload.array().length;
+                if (!entries.isEmpty() && size + 2 + length > FragmentBuffer.MAX_PAYLOAD) {
+                    frames.add(pack(destination, entries));
+                    entries.clear();
+                    size = 0;
+                }
+                entries.add(payload);
+                size += 2 + length;
+            }
+            frames.add(pack(destination, entries));
+        }
+        destinations.clear();
+        return frames;
+    }
+
+    private Frame pack(Destination destination, List<ByteBuffer> entries) {
+        if (entries.size() == 1) {
+            return new Frame(destination.server, destination.channel, entries.get(0).array());
+        }
+        ByteArrayDataOutput out = ByteStreams.newDataOutput();
+        out.writeUTF(destination.channel);
+        out.writeShort(entries.size());
+        for (ByteBuffer entry : entries) {
+            out.writeShort(entry.array().length);
+            out.write(entry.array());
+        }
+        return new Frame(destination.server, BATCH_CHANNEL, out.toByteArray());
+    }
+
+    /**
+     * Unpacks a received batch.
+     *
+     * @param batch the batch payload
+     * @return the subchannel and payload of each message in the batch
+     * @throws IllegalArgumentException if the batch is malformed
+     */
+    public static List<Frame> unpack(byte[] batch) {
+        ByteArrayDataInput in = ByteStreams.newDataInput(batch);
+        try {
+            String channel = in.readUTF();
+            int count = in.readUnsignedShort();
+            List<Frame> frames = new ArrayList<Frame>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] payload = new byte[in.readUnsignedShort()];
+                in.readFully(payload);
+                frames.add(new Frame(null, channel, payload));
+            }
+            return frames;
+        } catch (IllegalStateException e) {
+            throw new IllegalArgumentException("Truncated batch", e);
+        }
+    }
+
+    /**
+     * A message ready to be sent, or unpacked from a batch.
+     */
+    public static class Frame {
+
+        private final String server;
+        private final String channel;
+        private final byte[] payload;
+
+        private Frame(String server, String channel, byte[] payload) {
+            this.server = server;
+            this.channel = channel;
+            this.payload = payload;
+        }
+
+        /**
+         * Gets the server to which to send the message.
+         *
+         * @return the server, or null for an unpacked message
+         */
+        public String getServer() {
+            return server;
+        }
+
+        /**
+         * Gets the subchannel over which to send the message.
+         *
+         * @return the subchannel
+         */
+        public String getChannel() {
+            return channel;
+        }
+
+        /**
+         * Gets the message payload.
+         *
+         * @return the payload
+         */
+        public byte[] getPayload() {
+            return payload;
+        }
+
+    }
+
+    private static class Destination {
+
+        private final String server;
+        private final String channel;
+        private final boolean batchable;
+        private final Set<ByteBuffer> payloads;
+
+        private Destination(String server, String channel, boolean batchable) {
+            this.server = server;
+            this.channel = channel;
+            this.batchable = batchable;
+            this.payloads = new LinkedHashSet<ByteBuffer>();
+        }
+
+    }
+
+}
@@ -0,0 +1,121 @@
+package nu.nerd.nerdlist;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * A bounded queue of requests that cannot be sent yet, because the server
+ * name is not known or no player is online to carry them. Requests expire
+ * after a while, and the oldest are dropped when the queue is full.
+ */
+public class PendingQueue {
+
+    private final Deque<ListRequest> requests;
+    private int capacity;
+    private long ttl;
+    private long queued;
+    private long expired;
+    private long dropped;
+
+    /**
+     * Creates an empty queue.
+     *
+     * @param capacity the most requests to hold
+     * @param ttl how long requests may wait, in milliseconds
+     */
+    public PendingQueue(int capacity, long ttl) {
+        requests = new ArrayDeque<ListRequest>();
+        setLimits(capacity, ttl);
+    }
+
+    /**
+     * Changes the limits of the queue, dropping the oldest requests if it is
+     * now over capacity.
+     *
+     * @param capacity the most requests to hold
+     * @param ttl how long requests may wait, in milliseconds
+     */
+    public void setLimits(int capacity, long ttl) {
+        this.capacity = Math.max(1, capacity);
+        this.ttl = ttl;
+        while (requests.size() > this.capacity) {
+            requests.poll();
+            dropped++;
+        }
+    }
+
+    /**
+     * Adds a request, dropping the oldest request if the queue is full.
+     *
+     * @param request the request
+     */
+    public void add(ListRequest request) {
+        expire();
+        if (requests.size() >= capacity) {
+            requests.poll();
+            dropped++;
+        }
+        requests.add(request);
+        queued++;
+    }
+
+    /**
+     * Removes and returns every request that has not expired, oldest first.
+     *
+     * @return the requests
+     */
+    public List<ListRequest> drain() {
+        expire();
+        List<ListRequest> drained = new ArrayList<ListRequest>(requests);
+        requests.clear();
+        return drained;
+    }
+
+    /**
+     * Gets the number of requests waiting, including any that have expired
+     * but not yet been removed.
+     *
+     * @return the queue depth
+     */
+    public int size() {
+        return requests.size();
+    }
+
+    /**
+     * Gets the number of requests ever added to the queue.
+     *
+     * @return the queued count
+     */
+    public long getQueued() {
+        return queued;
+    }
+
+    /**
+     * Gets the number of requests that expired before they could be sent.
+     *
+     * @return the expired count
+     */
+    public long getExpired() {
+        return expired;
+    }
+
+    /**
+     * Gets the number of requests dropped because the queue was full.
+     *
+     * @return the dropped count
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    private void expire() {
+        long cutoff = System.currentTimeMillis() - ttl;
+        while (!requests.isEmpty() && requests.peek().getCreated() < cutoff) {
+            requests.poll();
+            expired++;
+        }
+    }
+
+}
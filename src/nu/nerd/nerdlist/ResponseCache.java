@@ -0,0 +1,152 @@
+package nu.nerd.nerdlist;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of this server's encoded roster, so responses to different players
+ * only need their recipient and return address encoded. The cache is
+ * replaced whenever the roster version changes.
+ * <p>
+ * The last few encoded rosters are also kept, as other servers may hold one
+ * of them to decompress the current roster against.
+ */
+public class ResponseCache {
+
+    private final MessageCodec codec;
+    private final Map<Long, byte[]> history;
+    private final Map<Long, byte[]> packed;
+    private long version;
+    private Map<String, Collection<String>> groups;
+    private byte[] body;
+    private String jsonBody;
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param codec the codec used to encode responses
+     */
+    public ResponseCache(MessageCodec codec) {
+        this.codec = codec;
+        history = new LinkedHashMap<Long, byte[]>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                return size() > RosterDictionary.HISTORY;
+            }
+        };
+        packed = new HashMap<Long, byte[]>();
+        version = ListResponseMessage.NO_VERSION;
+    }
+
+    /**
+     * Gets a copy of the roster as it should be sent, reusing the previous
+     * copy if the roster has not changed.
+     *
+     * @param version the roster version
+     * @param list the player list
+     * @return the non-empty groups and their players, by group name
+     */
+    public Map<String, Collection<String>> getGroups(long version, Map<?, Collection<String>> list) {
+        if (groups == null || this.version != version) {
+            Map<String, Collection<String>> groups = new LinkedHashMap<String, Collection<String>>();
+            for (Map.Entry<?, Collection<String>> group : list.entrySet()) {
+                if (!group.getValue().isEmpty()) {
+                    groups.put(group.getKey().toString(),
+                            Collections.unmodifiableList(new ArrayList<String>(group.getValue())));
+                }
+            }
+            this.version = version;
+            this.groups = Collections.unmodifiableMap(groups);
+            body = null;
+            jsonBody = null;
+            packed.clear();
+        }
+        return groups;
+    }
+
+    /**
+     * Encodes a response, reusing the encoded roster if the response carries
+     * the cached roster.
+     *
+     * @param response the response
+     * @param json whether to use the legacy JSON format
+     * @return the encoded payload
+     */
+    public byte[] encode(ListResponseMessage response, boolean json) {
+        return encode(response, json, 0);
+    }
+
+    /**
+     * Encodes a response, reusing the encoded roster if the response carries
+     * the cached roster. The cached roster is deflated if it is at least the
+     * given size and the receiving server accepts that.
+     *
+     * @param response the response
+     * @param json whether to use the legacy JSON format
+     * @param threshold the smallest encoded roster to deflate, in bytes, or 0 to never deflate
+     * @return the encoded payload
+     * @throws IllegalArgumentException if the response is too large for the legacy JSON format
+     */
+    public byte[] encode(ListResponseMessage response, boolean json, int threshold) {
+        if (response.getGroups() != groups || response.getVersion() != version) {
+            return codec.encode(response, json);
+        }
+        if (json) {
+            if (jsonBody == null) {
+                misses++;
+                jsonBody = codec.encodeResponseBodyJSON(response);
+            } else {
+                hits++;
+            }
+            return codec.encodeResponseJSON(response, jsonBody);
+        }
+        if (body == null) {
+            misses++;
+            body = codec.encodeResponseBody(response);
+            history.put(version, body);
+        } else {
+            hits++;
+        }
+        if (response.isDeflate() && threshold > 0 && body.length >= threshold) {
+            long dictionaryVersion = response.getDictionary();
+            byte[] dictionary = history.get(dictionaryVersion);
+            if (dictionary == null) {
+                dictionaryVersion = ListResponseMessage.NO_VERSION;
+            }
+            byte[] deflated = packed.get(dictionaryVersion);
+            if (deflated == null) {
+                deflated = codec.deflate(body, dictionary);
+                packed.put(dictionaryVersion, deflated);
+            }
+            if (deflated.length < body.length) {
+                return codec.encodeResponse(response, deflated, dictionaryVersion, body.length);
+            }
+        }
+        return codec.encodeResponse(response, body);
+    }
+
+    /**
+     * Gets the number of responses that reused the encoded roster.
+     *
+     * @return the hit count
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of responses that had to encode the roster.
+     *
+     * @return the miss count
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+}
@@ -0,0 +1,73 @@
+package nu.nerd.nerdlist;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The encoded rosters last received from a server. Both servers hold the same
+ * bytes for a given roster version, so they can be used as a preset deflate
+ * dictionary for the server's next response: the names already sent then
+ * compress to short back-references.
+ * <p>
+ * The last few versions are kept, as the server does, so a response
+ * compressed against an older version can still be read when another
+ * response has arrived in the meantime.
+ */
+public class RosterDictionary {
+
+    /**
+     * The number of roster versions kept by each server.
+     */
+    public static final int HISTORY = 8;
+
+    private final Map<Long, byte[]> bodies;
+    private long version;
+
+    /**
+     * Creates a dictionary.
+     *
+     * @param version the roster version
+     * @param body the encoded roster
+     */
+    public RosterDictionary(long version, byte[] body) {
+        bodies = new LinkedHashMap<Long, byte[]>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                return size() > HISTORY;
+            }
+        };
+        put(version, body);
+    }
+
+    /**
+     * Adds an encoded roster, making it the latest version.
+     *
+     * @param version the roster version
+     * @param body the encoded roster
+     */
+    public synchronized void put(long version, byte[] body) {
+        bodies.remove(version);
+        bodies.put(version, body);
+        this.version = version;
+    }
+
+    /**
+     * Gets the latest roster version.
+     *
+     * @return the roster version
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the encoded roster of the given version.
+     *
+     * @param version the roster version
+     * @return the encoded roster, or null if it is no longer kept
+     */
+    public synchronized byte[] getBody(long version) {
+        return bodies.get(version);
+    }
+
+}
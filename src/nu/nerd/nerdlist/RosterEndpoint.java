@@ -0,0 +1,213 @@
+package nu.nerd.nerdlist;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A read-only HTTP endpoint serving the roster as JSON, for websites and bots
+ * that would otherwise scrape /list output.
+ * <p>
+ * Requests are answered on the endpoint's own thread from a snapshot, which
+ * is only rebuilt on the main thread when a roster version changes. Each
+ * snapshot has an ETag, so clients sending If-None-Match get an empty 304
+ * response until the roster changes.
+ */
+public class RosterEndpoint implements HttpHandler {
+
+    /**
+     * The path the roster is served on.
+     */
+    public static final String PATH = "/roster";
+
+    private final NerdList plugin;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private volatile Snapshot snapshot;
+    private String snapshotKey;
+    private long snapshots;
+
+    /**
+     * Creates a new endpoint and starts listening on the given address.
+     *
+     * @param plugin the NerdList plugin
+     * @param address the address to listen on
+     * @throws IOException if the address cannot be listened on
+     */
+    public RosterEndpoint(NerdList plugin, InetSocketAddress address) throws IOException {
+        this.plugin = plugin;
+        server = HttpServer.create(address, 0);
+        server.createContext(PATH, this);
+        executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("NerdList HTTP")
+                .setDaemon(true)
+                .build());
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Stops listening and answering requests.
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Gets the address this endpoint listens on.
+     *
+     * @return the address
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Rebuilds the snapshot if this server's roster or a replicated roster
+     * has changed since it was last built. This must be called on the main
+     * thread.
+     */
+    @SuppressWarnings("unchecked")
+    public void refresh() {
+        RosterReplicator replicator = plugin.getReplicator();
+        Collection<RosterReplica> replicas = replicator == null
+                ? new ArrayList<RosterReplica>() : replicator.getReplicas();
+        StringBuilder key = new StringBuilder();
+        key.append(plugin.getServerName()).append(':').append(plugin.getRosterVersion());
+        for (RosterReplica replica : replicas) {
+            if (replica.getVisibility() > 1) {
+                key.append(',').append(replica.getServer()).append(':').append(replica.getVersion());
+            }
+        }
+        if (key.toString().equals(snapshotKey)) {
+            return;
+        }
+
+        String localServer = plugin.getServerName() == null ? "this server" : plugin.getServerName();
+        JSONObject root = toJSON(localServer, plugin.getRosterVersion(), plugin.getPlayerList());
+        JSONArray network = new JSONArray();
+        int total = ((Number) root.get("total")).intValue();
+        for (RosterReplica replica : replicas) {
+            // Only rosters the other servers show to everyone are published
+            if (replica.getVisibility() > 1) {
+                network.add(toJSON(replica.getServer(), replica.getVersion(), replica.getGroups()));
+                total += replica.getPlayerCount();
+            }
+        }
+        root.put("network", network);
+        root.put("network-total", total);
+        snapshotKey = key.toString();
+        snapshot = new Snapshot('"' + Long.toHexString(plugin.getRosterVersion()) + '-' + (++snapshots) + '"',
+                root.toJSONString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @SuppressWarnings("unchecked")
+    private JSONObject toJSON(String server, long version, Map<?, Collection<String>> list) {
+        JSONObject object = new JSONObject();
+        object.put("server", server);
+        object.put("version", version);
+        JSONArray groups = new JSONArray();
+        int total = 0;
+        for (Map.Entry<?, Collection<String>> group : list.entrySet()) {
+            if (group.getValue().isEmpty()) {
+                continue;
+            }
+            JSONObject groupObject = new JSONObject();
+            groupObject.put("name", group.getKey() instanceof ListGroup
+                    ? ((ListGroup) group.getKey()).getName() : group.getKey().toString());
+            groupObject.put("players", new ArrayList<String>(group.getValue()));
+            groups.add(groupObject);
+            total += group.getValue().size();
+        }
+        object.put("groups", groups);
+        object.put("total", total);
+        return object;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            boolean head = method.equals("HEAD");
+            if (!method.equals("GET") && !head) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            if (!exchange.getRequestURI().getPath().equals(PATH)) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            Snapshot snapshot = this.snapshot;
+            if (snapshot == null) {
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("ETag", snapshot.etag);
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            if (matches(exchange.getRequestHeaders().getFirst("If-None-Match"), snapshot.etag)) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(200, head ? -1 : snapshot.body.length);
+            if (!head) {
+                OutputStream out = exchange.getResponseBody();
+                out.write(snapshot.body);
+                out.close();
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Determines whether an If-None-Match header matches the given ETag.
+     *
+     * @param header the header, or null
+     * @param etag the ETag
+     * @return whether the client already has the current snapshot
+     */
+    private boolean matches(String header, String etag) {
+        if (header == null) {
+            return false;
+        }
+        for (String tag : header.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Snapshot {
+
+        private final String etag;
+        private final byte[] body;
+
+        private Snapshot(String etag, byte[] body) {
+            this.etag = etag;
+            this.body = body;
+        }
+
+    }
+
+}
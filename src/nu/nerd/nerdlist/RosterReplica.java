@@ -0,0 +1,178 @@
+package nu.nerd.nerdlist;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * A local copy of another server's roster, kept up to date by the sync
+ * messages it pushes.
+ */
+public class RosterReplica {
+
+    private final String server;
+    private final long epoch;
+    private long sequence;
+    private long version;
+    private int visibility;
+    private long updated;
+    private final List<String> order;
+    private final NameIndex players;
+    private Map<String, Collection<String>> groups;
+
+    /**
+     * Creates a replica from a snapshot.
+     *
+     * @param snapshot the snapshot
+     */
+    public RosterReplica(RosterSyncMessage snapshot) {
+        server = snapshot.getServer();
+        epoch = snapshot.getEpoch();
+        order = new ArrayList<String>(snapshot.getGroups().keySet());
+        players = new NameIndex();
+        for (Map.Entry<String, Collection<String>> group : snapshot.getGroups().entrySet()) {
+            for (String player : group.getValue()) {
+                players.put(player, group.getKey());
+            }
+        }
+        update(snapshot);
+    }
+
+    /**
+     * Applies a delta that directly follows the last applied message.
+     *
+     * @param delta the delta
+     * @return whether the delta could be applied; if not, a snapshot is needed
+     */
+    public boolean apply(RosterSyncMessage delta) {
+        for (String group : delta.getChanges().values()) {
+            if (!group.isEmpty() && !order.contains(group)) {
+                return false;
+            }
+        }
+        for (Map.Entry<String, String> change : delta.getChanges().entrySet()) {
+            if (change.getValue().isEmpty()) {
+                players.remove(change.getKey());
+            } else {
+                players.put(change.getKey(), change.getValue());
+            }
+        }
+        update(delta);
+        return true;
+    }
+
+    private void update(RosterSyncMessage message) {
+        sequence = message.getSequence();
+        version = message.getVersion();
+        visibility = message.getVisibility();
+        updated = System.currentTimeMillis();
+        groups = null;
+    }
+
+    /**
+     * Gets the server this is a replica of.
+     *
+     * @return the server
+     */
+    public String getServer() {
+        return server;
+    }
+
+    /**
+     * Gets the epoch of the messages this replica was built from.
+     *
+     * @return the epoch
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Gets the sequence number of the last applied message.
+     *
+     * @return the sequence number
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Gets the server's roster version as of the last applied message.
+     *
+     * @return the roster version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the server's list visibility.
+     *
+     * @return the visibility
+     */
+    public int getVisibility() {
+        return visibility;
+    }
+
+    /**
+     * Gets when the last message was applied.
+     *
+     * @return the time, in milliseconds
+     */
+    public long getUpdated() {
+        return updated;
+    }
+
+    /**
+     * Gets the listed players, separated by non-empty groups in display order.
+     * Each group's players are sorted by name.
+     *
+     * @return the listed players
+     */
+    public Map<String, Collection<String>> getGroups() {
+        if (groups == null) {
+            Map<String, NavigableSet<String>> sorted = new LinkedHashMap<String, NavigableSet<String>>();
+            for (String group : order) {
+                sorted.put(group, new TreeSet<String>(String.CASE_INSENSITIVE_ORDER));
+            }
+            for (Map.Entry<String, String> player : players.getNames().entrySet()) {
+                sorted.get(player.getValue()).add(player.getKey());
+            }
+            Map<String, Collection<String>> groups = new LinkedHashMap<String, Collection<String>>();
+            for (Map.Entry<String, NavigableSet<String>> group : sorted.entrySet()) {
+                if (!group.getValue().isEmpty()) {
+                    groups.put(group.getKey(), Collections.unmodifiableSet(group.getValue()));
+                }
+            }
+            this.groups = Collections.unmodifiableMap(groups);
+        }
+        return groups;
+    }
+
+    /**
+     * Finds the listed players whose names start with the given prefix,
+     * ignoring case.
+     *
+     * @param prefix the prefix
+     * @param limit the most players to return
+     * @return the matching players, sorted by name and separated by group name
+     */
+    public Map<String, Collection<String>> find(String prefix, int limit) {
+        return players.find(prefix, limit);
+    }
+
+    /**
+     * Gets the number of listed players.
+     *
+     * @return the player count
+     */
+    public int getPlayerCount() {
+        return players.getNames().size();
+    }
+
+}
@@ -0,0 +1,245 @@
+package nu.nerd.nerdlist;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Pushes this server's roster to every other server, and keeps replicas of
+ * the rosters they push, so player lists of other servers can be shown
+ * without a round trip.
+ * <p>
+ * Changes are batched and pushed once per tick as numbered deltas, and a full
+ * snapshot is pushed periodically. A server that misses a delta asks for a
+ * new snapshot instead of applying later deltas.
+ */
+public class RosterReplicator implements MemberIndex.Listener {
+
+    private static final long RESYNC_INTERVAL = 5000;
+
+    private final NerdList plugin;
+    private final ListHandler handler;
+    private final long epoch;
+    private long sequence;
+    private final Map<String, String> changes;
+    private boolean snapshotPending;
+    private BukkitTask flushTask;
+    private BukkitTask snapshotTask;
+    private final Map<String, RosterReplica> replicas;
+    private final Map<String, Long> resyncs;
+
+    /**
+     * Creates a new replicator.
+     *
+     * @param plugin the NerdList plugin
+     * @param handler the handler sending messages to other servers
+     */
+    public RosterReplicator(NerdList plugin, ListHandler handler) {
+        this.plugin = plugin;
+        this.handler = handler;
+        epoch = System.currentTimeMillis();
+        changes = new LinkedHashMap<String, String>();
+        replicas = new TreeMap<String, RosterReplica>(String.CASE_INSENSITIVE_ORDER);
+        resyncs = new HashMap<String, Long>();
+    }
+
+    /**
+     * Starts pushing snapshots at the configured interval, restarting the
+     * schedule if already started.
+     */
+    public void start() {
+        if (snapshotTask != null) {
+            snapshotTask.cancel();
+        }
+        long interval = plugin.getSnapshotInterval();
+        snapshotTask = plugin.getServer().getScheduler().runTaskTimer(plugin, new Runnable() {
+            @Override
+            public void run() {
+                snapshotPending = true;
+                flush();
+            }
+        }, 1, interval);
+    }
+
+    /**
+     * Stops pushing snapshots and discards all replicas.
+     */
+    public void stop() {
+        if (snapshotTask != null) {
+            snapshotTask.cancel();
+            snapshotTask = null;
+        }
+        if (flushTask != null) {
+            flushTask.cancel();
+            flushTask = null;
+        }
+        changes.clear();
+        replicas.clear();
+    }
+
+    @Override
+    public void onListed(String player, ListGroup group) {
+        changes.put(player, group.getName());
+        flushLater();
+    }
+
+    @Override
+    public void onUnlisted(String player) {
+        changes.put(player, "");
+        if (plugin.getServer().getOnlinePlayers().size() <= 1) {
+            // The last player is leaving, and no one will be left to carry a later push
+            flush();
+            handler.flushOutbound();
+        } else {
+            flushLater();
+        }
+    }
+
+    @Override
+    public void onReset() {
+        snapshotPending = true;
+        flushLater();
+    }
+
+    private void flushLater() {
+        if (flushTask == null && snapshotTask != null) {
+            flushTask = plugin.getServer().getScheduler().runTask(plugin, new Runnable() {
+                @Override
+                public void run() {
+                    flushTask = null;
+                    flush();
+                }
+            });
+        }
+    }
+
+    private void flush() {
+        if (!handler.canSend()) {
+            // Nothing can be pushed, so send everything once we can
+            changes.clear();
+            snapshotPending = true;
+            return;
+        }
+        int visibility = plugin.getVisibility();
+        if (snapshotPending) {
+            Map<String, Collection<String>> groups = new LinkedHashMap<String, Collection<String>>();
+            for (Map.Entry<ListGroup, Collection<String>> group : plugin.getPlayerList().entrySet()) {
+                groups.put(group.getKey().getName(), visibility > 0
+                        ? new ArrayList<String>(group.getValue())
+                        : Collections.<String>emptyList());
+            }
+            handler.sendSync("ALL", new RosterSyncMessage(null, RosterSyncMessage.Type.SNAPSHOT, epoch, ++sequence,
+                    plugin.getRosterVersion(), visibility, groups, null));
+        } else if (!changes.isEmpty() && visibility > 0) {
+            handler.sendSync("ALL", new RosterSyncMessage(null, RosterSyncMessage.Type.DELTA, epoch, ++sequence,
+                    plugin.getRosterVersion(), visibility, null, new LinkedHashMap<String, String>(changes)));
+        }
+        snapshotPending = false;
+        changes.clear();
+    }
+
+    /**
+     * Handles a sync message from another server.
+     *
+     * @param message the message
+     */
+    public void receive(RosterSyncMessage message) {
+        String server = message.getServer();
+        switch (message.getType()) {
+            case SNAPSHOT:
+                replicas.put(server, new RosterReplica(message));
+                break;
+            case DELTA: {
+                RosterReplica replica = replicas.get(server);
+                if (replica != null && replica.getEpoch() == message.getEpoch()) {
+                    if (message.getSequence() <= replica.getSequence()) {
+                        break;
+                    }
+                    if (message.getSequence() == replica.getSequence() + 1 && replica.apply(message)) {
+                        break;
+                    }
+                }
+                replicas.remove(server);
+                requestSnapshot(server);
+                break;
+            }
+            case RESYNC:
+                snapshotPending = true;
+                flushLater();
+                break;
+        }
+    }
+
+    private void requestSnapshot(String server) {
+        long now = System.currentTimeMillis();
+        Long last = resyncs.get(server);
+        if (last == null || now - last >= RESYNC_INTERVAL) {
+            resyncs.put(server, now);
+            handler.sendSync(server, new RosterSyncMessage(null, RosterSyncMessage.Type.RESYNC, epoch, 0, 0, 0,
+                    null, null));
+        }
+    }
+
+    /**
+     * Gets the replica of the given server's roster, if it is up to date.
+     *
+     * @param server the server
+     * @return the replica, or null if there is no up-to-date replica
+     */
+    public RosterReplica getReplica(String server) {
+        expire();
+        return replicas.get(server);
+    }
+
+    /**
+     * Gets the up-to-date replicas of every other server's roster.
+     *
+     * @return the replicas, in order of server name
+     */
+    public Collection<RosterReplica> getReplicas() {
+        expire();
+        return Collections.unmodifiableCollection(replicas.values());
+    }
+
+    /**
+     * Determines whether the given replica's server lets the player see its list.
+     *
+     * @param replica the replica
+     * @param player the player
+     * @return whether the list is visible to the player
+     */
+    public boolean isVisible(RosterReplica replica, CommandSender player) {
+        return isVisible(replica, player.hasPermission("nerdlist.admin"));
+    }
+
+    /**
+     * Determines whether the given replica's server lets admins, or everyone,
+     * see its list.
+     *
+     * @param replica the replica
+     * @param admin whether the list is for an admin
+     * @return whether the list is visible
+     */
+    public boolean isVisible(RosterReplica replica, boolean admin) {
+        return replica.getVisibility() > 1 || replica.getVisibility() > 0 && admin;
+    }
+
+    private void expire() {
+        long cutoff = System.currentTimeMillis() - plugin.getSnapshotInterval() * 50 * 3;
+        Iterator<RosterReplica> it = replicas.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().getUpdated() < cutoff) {
+                it.remove();
+            }
+        }
+    }
+
+}
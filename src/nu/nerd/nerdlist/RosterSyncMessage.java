@@ -0,0 +1,137 @@
+package nu.nerd.nerdlist;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A change to a server's roster, pushed to every other server so they can
+ * keep a replica of it. Sync messages are only sent in the binary format.
+ */
+public class RosterSyncMessage extends ListMessage {
+
+    /**
+     * The subchannel over which sync messages are sent.
+     */
+    public static final String CHANNEL = "NerdListSync";
+
+    /**
+     * The kind of sync message.
+     */
+    public enum Type {
+        /**
+         * The sender's full roster, replacing any replica of it.
+         */
+        SNAPSHOT,
+        /**
+         * Changes to the sender's roster since its previous message.
+         */
+        DELTA,
+        /**
+         * A request for the receiver to send a snapshot.
+         */
+        RESYNC
+    }
+
+    private final Type type;
+    private final long epoch;
+    private final long sequence;
+    private final long version;
+    private final int visibility;
+    private final Map<String, Collection<String>> groups;
+    private final Map<String, String> changes;
+
+    /**
+     * Creates a new sync message.
+     *
+     * @param server the sending server, or null if not yet known
+     * @param type the kind of message
+     * @param epoch the time the sending server started numbering its messages
+     * @param sequence the sequence number of this message
+     * @param version the sender's roster version
+     * @param visibility the sender's list visibility
+     * @param groups for a snapshot, every group in display order with its players
+     * @param changes for a delta, the new group of each changed player, or an empty string if they were removed
+     */
+    public RosterSyncMessage(String server, Type type, long epoch, long sequence, long version, int visibility,
+                             Map<String, Collection<String>> groups, Map<String, String> changes) {
+        super(server, "", NO_ID);
+        this.type = type;
+        this.epoch = epoch;
+        this.sequence = sequence;
+        this.version = version;
+        this.visibility = visibility;
+        this.groups = groups;
+        this.changes = changes;
+    }
+
+    /**
+     * Gets the kind of message.
+     *
+     * @return the type
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Gets the time the sending server started numbering its messages.
+     * Sequence numbers from different epochs are unrelated.
+     *
+     * @return the epoch
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Gets the sequence number of this message.
+     *
+     * @return the sequence number
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Gets the sender's roster version after this message is applied.
+     *
+     * @return the roster version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the sender's list visibility.
+     *
+     * @return the visibility
+     */
+    public int getVisibility() {
+        return visibility;
+    }
+
+    /**
+     * Gets every group in display order with its players, for a snapshot.
+     *
+     * @return the groups
+     */
+    public Map<String, Collection<String>> getGroups() {
+        return groups;
+    }
+
+    /**
+     * Gets the new group of each changed player, or an empty string if they
+     * were removed, for a delta.
+     *
+     * @return the changes
+     */
+    public Map<String, String> getChanges() {
+        return changes;
+    }
+
+    @Override
+    public String getChannel() {
+        return CHANNEL;
+    }
+
+}
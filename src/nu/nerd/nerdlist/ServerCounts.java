@@ -0,0 +1,102 @@
+package nu.nerd.nerdlist;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The number of players listed under each group on one server, as of one
+ * roster version.
+ */
+public class ServerCounts {
+
+    private final String server;
+    private final long version;
+    private final Map<String, Integer> groups;
+    private final int total;
+    private final long created;
+
+    /**
+     * Creates new counts.
+     *
+     * @param server the server
+     * @param version the server's roster version, or {@link ListResponseMessage#NO_VERSION}
+     * @param groups the number of players in each group, in display order
+     */
+    public ServerCounts(String server, long version, Map<String, Integer> groups) {
+        this.server = server;
+        this.version = version;
+        this.groups = Collections.unmodifiableMap(new LinkedHashMap<String, Integer>(groups));
+        int total = 0;
+        for (int count : groups.values()) {
+            total += count;
+        }
+        this.total = total;
+        created = System.currentTimeMillis();
+    }
+
+    /**
+     * Counts the players in a player list.
+     *
+     * @param server the server
+     * @param version the server's roster version, or {@link ListResponseMessage#NO_VERSION}
+     * @param list the player list, separated by groups in display order
+     * @return the counts
+     */
+    public static ServerCounts of(String server, long version, Map<?, Collection<String>> list) {
+        Map<String, Integer> groups = new LinkedHashMap<String, Integer>();
+        for (Map.Entry<?, Collection<String>> group : list.entrySet()) {
+            String name = group.getKey() instanceof ListGroup
+                    ? ((ListGroup) group.getKey()).getName() : group.getKey().toString();
+            groups.put(name, group.getValue().size());
+        }
+        return new ServerCounts(server, version, groups);
+    }
+
+    /**
+     * Gets the server these counts are from.
+     *
+     * @return the server
+     */
+    public String getServer() {
+        return server;
+    }
+
+    /**
+     * Gets the server's roster version as of these counts.
+     *
+     * @return the roster version, or {@link ListResponseMessage#NO_VERSION}
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the number of players in each group.
+     *
+     * @return the counts, by group name in display order
+     */
+    public Map<String, Integer> getGroups() {
+        return groups;
+    }
+
+    /**
+     * Gets the number of players on the server.
+     *
+     * @return the total
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * Gets when these counts were made or received.
+     *
+     * @return the time, in milliseconds
+     */
+    public long getCreated() {
+        return created;
+    }
+
+}
@@ -0,0 +1,194 @@
+package nu.nerd.nerdlist;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The servers on the network, as last reported by BungeeCord, and which of
+ * them are known to run NerdList.
+ */
+public class ServerDirectory {
+
+    /**
+     * The most times the probe interval is doubled for a server that keeps
+     * not answering.
+     */
+    private static final int MAX_BACKOFF = 4;
+
+    private NavigableSet<String> servers;
+    private final NavigableSet<String> listServers;
+    private final NavigableMap<String, Probe> probedServers;
+    private long updated;
+    private long probed;
+
+    /**
+     * Creates an empty directory.
+     */
+    public ServerDirectory() {
+        servers = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+        listServers = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+        probedServers = new TreeMap<String, Probe>(String.CASE_INSENSITIVE_ORDER);
+    }
+
+    /**
+     * Replaces the servers on the network. Servers that are no longer on the
+     * network are also forgotten as NerdList servers.
+     *
+     * @param names the server names
+     */
+    public void setServers(Collection<String> names) {
+        NavigableSet<String> servers = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+        servers.addAll(names);
+        this.servers = servers;
+        listServers.retainAll(servers);
+        probedServers.keySet().retainAll(servers);
+        updated = System.currentTimeMillis();
+    }
+
+    /**
+     * Determines whether the servers on the network have been received yet.
+     *
+     * @return whether the directory is known
+     */
+    public boolean isKnown() {
+        return updated != 0;
+    }
+
+    /**
+     * Gets when the servers on the network were last received.
+     *
+     * @return the time, in milliseconds, or 0 if they have not been received
+     */
+    public long getUpdated() {
+        return updated;
+    }
+
+    /**
+     * Determines whether the server is on the network. Every server is
+     * assumed to be on the network until the directory is known.
+     *
+     * @param server the server name
+     * @return whether the server is on the network
+     */
+    public boolean contains(String server) {
+        return !isKnown() || servers.contains(server);
+    }
+
+    /**
+     * Gets the name of the server as BungeeCord spells it.
+     *
+     * @param server the server name, in any case
+     * @return the server's name, or the given name if it is not on the network
+     */
+    public String getName(String server) {
+        String name = servers.ceiling(server);
+        return name != null && name.equalsIgnoreCase(server) ? name : server;
+    }
+
+    /**
+     * Gets a read-only view of the servers on the network.
+     *
+     * @return the server names, sorted
+     */
+    public Collection<String> getServers() {
+        return Collections.unmodifiableSet(servers);
+    }
+
+    /**
+     * Records that the server runs NerdList.
+     *
+     * @param server the server name, or null if not known
+     */
+    public void addListServer(String server) {
+        if (server != null && contains(server)) {
+            listServers.add(server);
+            probedServers.remove(server);
+        }
+    }
+
+    /**
+     * Gets a read-only view of the servers known to run NerdList.
+     *
+     * @return the server names, sorted
+     */
+    public Collection<String> getListServers() {
+        return Collections.unmodifiableSet(listServers);
+    }
+
+    /**
+     * Determines whether some other servers on the network have not yet been
+     * seen to run NerdList and are due to be asked, and no servers have been
+     * asked since the given interval. A server that does not answer is asked
+     * again after the interval, then after twice the interval, and so on up
+     * to sixteen times the interval, so a server that was down or missed a
+     * probe is still found.
+     *
+     * @param localServer this server's name, or null if not known
+     * @param interval the least time between probes, in milliseconds
+     * @return whether the unknown servers should be asked
+     */
+    public boolean probe(String localServer, long interval) {
+        long now = System.currentTimeMillis();
+        if (now - probed < interval) {
+            return false;
+        }
+        if (isKnown()) {
+            List<String> unknown = new ArrayList<String>();
+            for (String server : servers) {
+                Probe probe = probedServers.get(server);
+                if (!listServers.contains(server) && (probe == null || now >= probe.next)
+                        && !server.equalsIgnoreCase(localServer)) {
+                    unknown.add(server);
+                }
+            }
+            if (unknown.isEmpty()) {
+                return false;
+            }
+            for (String server : unknown) {
+                Probe probe = probedServers.get(server);
+                if (probe == null) {
+                    probe = new Probe();
+                    probedServers.put(server, probe);
+                }
+                probe.next = now + (interval << Math.min(probe.attempts++, MAX_BACKOFF));
+            }
+        }
+        probed = now;
+        return true;
+    }
+
+    /**
+     * Gets the servers on the network whose names start with the given
+     * prefix, ignoring case.
+     *
+     * @param prefix the prefix
+     * @return the matching server names, sorted
+     */
+    public List<String> complete(String prefix) {
+        List<String> matches = new ArrayList<String>();
+        Iterator<String> it = servers.tailSet(prefix, true).iterator();
+        while (it.hasNext()) {
+            String server = it.next();
+            if (!server.regionMatches(true, 0, prefix, 0, prefix.length())) {
+                break;
+            }
+            matches.add(server);
+        }
+        return matches;
+    }
+
+    private static class Probe {
+
+        private int attempts;
+        private long next;
+
+    }
+
+}
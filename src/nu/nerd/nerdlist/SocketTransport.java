@@ -0,0 +1,355 @@
+package nu.nerd.nerdlist;
+
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Sends messages directly to other servers over persistent TCP connections,
+ * without going through BungeeCord or needing an online player.
+ * <p>
+ * Every server listens on its own address and connects to each of its peers,
+ * so each pair of servers shares two connections, one for each direction.
+ * Each message is sent as a frame holding its length, channel and payload.
+ * Connections are only accepted from the addresses of the configured peers.
+ * All socket work happens on a single thread; messages are only queued by
+ * {@link #send(String, String, byte[])}.
+ */
+public class SocketTransport implements Transport, Runnable {
+
+    private static final int MAX_FRAME = 0x10000;
+    private static final int MAX_QUEUED = 1024 * 1024;
+    private static final long RETRY_INTERVAL = 5000;
+
+    private final Logger logger;
+    private final Receiver receiver;
+    private final InetSocketAddress address;
+    private final Map<String, Peer> peers;
+    private final Set<InetAddress> allowed;
+    private final Selector selector;
+    private final Thread thread;
+    private volatile boolean running;
+
+    /**
+     * Creates a new transport and starts listening on the given address.
+     *
+     * @param logger the logger for connection problems
+     * @param receiver the receiver of messages from other servers
+     * @param address the address to listen on
+     * @param peers the address of each other server, by server name
+     * @throws IOException if the address cannot be listened on
+     */
+    public SocketTransport(Logger logger, Receiver receiver, InetSocketAddress address,
+                           Map<String, InetSocketAddress> peers) throws IOException {
+        this.logger = logger;
+        this.receiver = receiver;
+        this.address = address;
+        this.peers = new TreeMap<String, Peer>(String.CASE_INSENSITIVE_ORDER);
+        allowed = new HashSet<InetAddress>();
+        for (Map.Entry<String, InetSocketAddress> peer : peers.entrySet()) {
+            this.peers.put(peer.getKey(), new Peer(peer.getKey(), peer.getValue()));
+            allowed.add(peer.getValue().getAddress());
+        }
+        selector = Selector.open();
+        ServerSocketChannel server = ServerSocketChannel.open();
+        try {
+            server.configureBlocking(false);
+            server.socket().setReuseAddress(true);
+            server.socket().bind(address);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            selector.close();
+            throw e;
+        }
+        running = true;
+        thread = new Thread(this, "NerdList Transport");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public boolean send(String server, String channel, byte[] payload) {
+        ByteArrayDataOutput out = ByteStreams.newDataOutput();
+        out.writeInt(0);
+        out.writeUTF(channel);
+        out.write(payload);
+        ByteBuffer frame = ByteBuffer.wrap(out.toByteArray());
+        frame.putInt(0, frame.remaining() - 4);
+        if (frame.remaining() - 4 > MAX_FRAME) {
+            return false;
+        }
+
+        boolean sent = false;
+        if (server.equals("ALL")) {
+            for (Peer peer : peers.values()) {
+                sent |= peer.offer(frame.duplicate());
+            }
+        } else {
+            Peer peer = peers.get(server);
+            sent = peer != null && peer.offer(frame);
+        }
+        if (sent) {
+            selector.wakeup();
+        }
+        return sent;
+    }
+
+    @Override
+    public boolean canSend() {
+        return running;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                long now = System.currentTimeMillis();
+                for (Peer peer : peers.values()) {
+                    if (peer.channel == null && now >= peer.retryAt) {
+                        connect(peer);
+                    } else if (peer.key != null && peer.channel.isConnected() && peer.hasPending()) {
+                        peer.key.interestOps(SelectionKey.OP_WRITE);
+                    }
+                }
+                selector.select(RETRY_INTERVAL);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept((ServerSocketChannel) key.channel());
+                    } else if (key.attachment() instanceof Peer) {
+                        Peer peer = (Peer) key.attachment();
+                        if (key.isConnectable()) {
+                            finishConnect(peer);
+                        } else if (key.isWritable()) {
+                            write(peer);
+                        }
+                    } else if (key.isReadable()) {
+                        read(key);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            logger.warning("The server connection transport stopped: " + e);
+        } finally {
+            running = false;
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Nothing left to clean up
+            }
+        }
+    }
+
+    private void accept(ServerSocketChannel server) throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel != null) {
+            // Anyone else could otherwise inject rosters and responses
+            InetAddress remote = channel.socket().getInetAddress();
+            if (!allowed.contains(remote)) {
+                logger.warning("Refusing connection from " + remote + ", which is not a configured peer.");
+                channel.close();
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, ByteBuffer.allocate(MAX_FRAME + 4));
+        }
+    }
+
+    private void connect(Peer peer) {
+        try {
+            peer.channel = SocketChannel.open();
+            peer.channel.configureBlocking(false);
+            peer.channel.socket().setTcpNoDelay(true);
+            peer.channel.connect(peer.address);
+            peer.key = peer.channel.register(selector, SelectionKey.OP_CONNECT, peer);
+        } catch (IOException e) {
+            disconnect(peer, e);
+        }
+    }
+
+    private void finishConnect(Peer peer) {
+        try {
+            peer.channel.finishConnect();
+            peer.key.interestOps(peer.hasPending() ? SelectionKey.OP_WRITE : 0);
+            peer.connected = true;
+            logger.info("Connected to " + peer.name + " at " + peer.address + ".");
+        } catch (IOException e) {
+            disconnect(peer, e);
+        }
+    }
+
+    private void write(Peer peer) {
+        try {
+            while (true) {
+                if (peer.writing == null) {
+                    peer.writing = peer.queue.poll();
+                    if (peer.writing == null) {
+                        peer.key.interestOps(0);
+                        return;
+                    }
+                    peer.queued.addAndGet(-peer.writing.remaining());
+                }
+                peer.channel.write(peer.writing);
+                if (peer.writing.hasRemaining()) {
+                    return;
+                }
+                peer.writing = null;
+            }
+        } catch (IOException e) {
+            disconnect(peer, e);
+        }
+    }
+
+    private void read(SelectionKey key) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        ByteBuffer buffer = (ByteBuffer) key.attachment();
+        try {
+            if (channel.read(buffer) < 0) {
+                closeQuietly(key);
+                return;
+            }
+        } catch (IOException e) {
+            closeQuietly(key);
+            return;
+        }
+        buffer.flip();
+        while (buffer.remaining() >= 4) {
+            int length = buffer.getInt(buffer.position());
+            if (length < 2 || length > MAX_FRAME) {
+                logger.warning("Closing connection from " + channel.socket().getRemoteSocketAddress()
+                        + " after a malformed frame.");
+                closeQuietly(key);
+                return;
+            }
+            if (buffer.remaining() < length + 4) {
+                break;
+            }
+            byte[] frame = new byte[length];
+            buffer.getInt();
+            buffer.get(frame);
+            try {
+                String subchannel = ByteStreams.newDataInput(frame).readUTF();
+                int offset = 2 + ((frame[0] & 0xFF) << 8 | frame[1] & 0xFF);
+                receiver.receive(subchannel, Arrays.copyOfRange(frame, offset, length));
+            } catch (RuntimeException e) {
+                logger.warning("Discarding malformed frame from " + channel.socket().getRemoteSocketAddress()
+                        + ": " + e);
+            }
+        }
+        buffer.compact();
+    }
+
+    private void disconnect(Peer peer, IOException cause) {
+        if (peer.key != null) {
+            closeQuietly(peer.key);
+        } else if (peer.channel != null) {
+            try {
+                peer.channel.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+        if (peer.connected) {
+            logger.warning("Lost connection to " + peer.name + " at " + peer.address + ": " + cause);
+        }
+        peer.channel = null;
+        peer.key = null;
+        peer.writing = null;
+        peer.connected = false;
+        peer.retryAt = System.currentTimeMillis() + RETRY_INTERVAL;
+    }
+
+    private void closeQuietly(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    /**
+     * Gets the address this transport listens on.
+     *
+     * @return the address
+     */
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    private static class Peer {
+
+        private final String name;
+        private final InetSocketAddress address;
+        private final Queue<ByteBuffer> queue;
+        private final AtomicInteger queued;
+        // The remaining fields are only used on the transport thread
+        private SocketChannel channel;
+        private SelectionKey key;
+        private ByteBuffer writing;
+        private boolean connected;
+        private long retryAt;
+
+        private Peer(String name, InetSocketAddress address) {
+            this.name = name;
+            this.address = address;
+            queue = new ConcurrentLinkedQueue<ByteBuffer>();
+            queued = new AtomicInteger();
+        }
+
+        private boolean offer(ByteBuffer frame) {
+            // Messages to a server that stays unreachable are dropped rather than piling up
+            if (queued.addAndGet(frame.remaining()) > MAX_QUEUED) {
+                queued.addAndGet(-frame.remaining());
+                return false;
+            }
+            queue.add(frame);
+            return true;
+        }
+
+        private boolean hasPending() {
+            return writing != null || !queue.isEmpty();
+        }
+
+    }
+
+}
@@ -0,0 +1,46 @@
+package nu.nerd.nerdlist;
+
+/**
+ * Carries messages between servers.
+ */
+public interface Transport {
+
+    /**
+     * Sends a message to another server.
+     *
+     * @param server the server to which to send the message, or ALL
+     * @param channel the channel over which to send the message
+     * @param payload the message payload
+     * @return whether the message was sent
+     */
+    boolean send(String server, String channel, byte[] payload);
+
+    /**
+     * Determines whether messages can be sent right now.
+     *
+     * @return whether messages can be sent
+     */
+    boolean canSend();
+
+    /**
+     * Stops the transport and releases its connections.
+     */
+    void close();
+
+    /**
+     * Receives messages from a {@link Transport}.
+     */
+    interface Receiver {
+
+        /**
+         * Called when a message is received. This may be called from any
+         * thread.
+         *
+         * @param channel the channel the message was received on
+         * @param payload the message payload
+         */
+        void receive(String channel, byte[] payload);
+
+    }
+
+}